@@ -0,0 +1,336 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Answers '-find' queries over the attributes of ships and outfits, e.g.
+//   outfit where shield generation > 3 and mass < 20 sort by mass limit 10
+// The first time an attribute is queried, the rows of each type are sorted
+// by its value. A query then binary-searches the range of rows that meets
+// its most selective condition, and checks the other conditions only for
+// the rows in that range.
+public class AttributeQuery {
+
+	public static final int DEFAULT_LIMIT = 20;
+	public static final int MAX_LIMIT = 50;
+	private static final String[] OPERATORS = {"<=", ">=", "!=", "<", ">", "="};
+
+	// One "attribute operator value" condition.
+	public static final class Condition {
+		public final String attribute;
+		public final String operator;
+		public final double value;
+
+		Condition(String attribute, String operator, double value){
+			this.attribute = attribute;
+			this.operator = operator;
+			this.value = value;
+		}
+
+		boolean matches(double x){
+			switch(operator){
+				case "<": return x < value;
+				case "<=": return x <= value;
+				case ">": return x > value;
+				case ">=": return x >= value;
+				case "=": return x == value;
+				default: return x != value;
+			}
+		}
+	}
+
+	// A parsed query: the type of node to find, the conditions it must meet,
+	// and how to order and cut off the results.
+	public static final class Query {
+		public final String type;
+		public final List<Condition> conditions = new ArrayList<>();
+		public String sortBy = "";
+		public boolean descending = true;
+		public int limit = DEFAULT_LIMIT;
+
+		Query(String type){
+			this.type = type;
+		}
+
+
+
+		/**
+		 * Parse a query of the form
+		 *   type [where attr op value [and ...]] [sort by attr [asc|desc]] [limit N]
+		 * @param  String text          The query.
+		 * @return        The parsed query.
+		 * @throws IllegalArgumentException If the query cannot be parsed; the
+		 *                                  message says why.
+		 */
+		public static Query parse(String text){
+			// Operators may be written without spaces around them.
+			List<String> words = Helper.GetTokens(text.replaceAll("(<=|>=|!=|<|>|=)", " $1 "));
+			if(words.isEmpty())
+				throw new IllegalArgumentException("Which type of node should I find?");
+
+			String type = words.get(0).toLowerCase();
+			if(type.endsWith("s"))
+				type = type.substring(0, type.length() - 1);
+			if(!type.equals("ship") && !type.equals("outfit"))
+				throw new IllegalArgumentException("I can only find ships and outfits, not '" + words.get(0) + "'.");
+			Query query = new Query(type);
+
+			int i = 1;
+			if(i < words.size() && words.get(i).equalsIgnoreCase("where")){
+				do{
+					++i;
+					int op = i;
+					while(op < words.size() && !isOperator(words.get(op)))
+						++op;
+					if(op == i || op + 1 >= words.size())
+						throw new IllegalArgumentException("Conditions look like 'mass < 20'.");
+					query.conditions.add(new Condition(join(words, i, op).toLowerCase(), words.get(op), number(words.get(op + 1))));
+					i = op + 2;
+				}while(i < words.size() && words.get(i).equalsIgnoreCase("and"));
+			}
+			if(i + 1 < words.size() && words.get(i).equalsIgnoreCase("sort") && words.get(i + 1).equalsIgnoreCase("by")){
+				i += 2;
+				int end = i;
+				while(end < words.size() && !isKeyword(words.get(end)))
+					++end;
+				if(end == i)
+					throw new IllegalArgumentException("Sort by which attribute?");
+				query.sortBy = join(words, i, end).toLowerCase();
+				i = end;
+				if(i < words.size() && (words.get(i).equalsIgnoreCase("asc") || words.get(i).equalsIgnoreCase("desc")))
+					query.descending = words.get(i++).equalsIgnoreCase("desc");
+			}
+			if(i + 1 < words.size() && words.get(i).equalsIgnoreCase("limit")){
+				query.limit = Math.max(1, Math.min(MAX_LIMIT, (int)number(words.get(i + 1))));
+				i += 2;
+			}
+			if(i < words.size())
+				throw new IllegalArgumentException("I did not understand '" + join(words, i, words.size()) + "'.");
+			return query;
+		}
+	}
+
+	// The rows of one type, in order of one attribute's value.
+	private static final class Sorted {
+		final int[] rows;
+		final double[] values;
+
+		Sorted(int[] rows, double[] values){
+			this.rows = rows;
+			this.values = values;
+		}
+	}
+
+	// The result of a query: how many nodes matched, and the first of them.
+	public static final class Result {
+		public final int matches;
+		public final List<DataIndex.Entry> entries;
+
+		Result(int matches, List<DataIndex.Entry> entries){
+			this.matches = matches;
+			this.entries = entries;
+		}
+	}
+
+	private final AttributeTable table;
+	// By type and attribute.
+	private final ConcurrentHashMap<String, Sorted> sorted = new ConcurrentHashMap<>();
+
+
+
+	public AttributeQuery(DataIndex index){
+		table = index.getDerived(AttributeTable.class, AttributeTable::new);
+	}
+
+
+
+	/**
+	 * Find the ships or outfits that meet every condition of the query.
+	 * @param  Query query         The query.
+	 * @return       The number of matches, and the first 'limit' of them.
+	 * @throws IllegalArgumentException If the query names an unknown attribute.
+	 */
+	public Result run(Query query){
+		for(Condition condition : query.conditions)
+			column(condition.attribute);
+		String sortBy = query.sortBy.isEmpty() && !query.conditions.isEmpty()
+				? query.conditions.get(0).attribute : query.sortBy;
+		double[] sortValues = sortBy.isEmpty() ? null : column(sortBy);
+
+		// Scan the narrowest range of rows.
+		int from = table.getFirstRow(query.type);
+		int to = table.getEndRow(query.type);
+		int[] candidates = null;
+		Condition scanned = null;
+		for(Condition condition : query.conditions){
+			if(condition.operator.equals("!="))
+				continue;
+			Sorted s = sorted(query.type, condition.attribute);
+			int[] range = range(s, condition);
+			if(candidates == null || range[1] - range[0] < candidates.length){
+				candidates = Arrays.copyOfRange(s.rows, range[0], range[1]);
+				scanned = condition;
+			}
+		}
+		if(candidates == null){
+			candidates = new int[to - from];
+			for(int i = 0; i < candidates.length; ++i)
+				candidates[i] = from + i;
+		}
+
+		// In order of definition, so the first definition of a node is kept.
+		Arrays.sort(candidates);
+		List<Integer> matches = new ArrayList<>();
+		HashSet<String> names = new HashSet<>();
+		for(int row : candidates){
+			if(table.isVariant(row))
+				continue;
+			boolean match = true;
+			for(Condition condition : query.conditions)
+				if(condition != scanned && !condition.matches(column(condition.attribute)[row])){
+					match = false;
+					break;
+				}
+			// A node defined more than once is only listed once.
+			if(match && names.add(table.getEntry(row).getName()))
+				matches.add(row);
+		}
+
+		if(sortValues != null){
+			final double[] values = sortValues;
+			final int sign = query.descending ? -1 : 1;
+			matches.sort((a, b) -> sign * Double.compare(values[a], values[b]));
+		}
+		else
+			matches.sort((a, b) -> table.getEntry(a).getName().compareToIgnoreCase(table.getEntry(b).getName()));
+
+		List<DataIndex.Entry> entries = new ArrayList<>();
+		for(int i = 0; i < matches.size() && i < query.limit; ++i)
+			entries.add(table.getEntry(matches.get(i)));
+		return new Result(matches.size(), entries);
+	}
+
+
+
+	// Returns the value of the attribute for the given ship or outfit.
+	public double getValue(DataIndex.Entry entry, String attribute){
+		return table.get(entry, attribute);
+	}
+
+
+
+	private double[] column(String attribute){
+		double[] column = table.getColumn(attribute);
+		if(column == null)
+			throw new IllegalArgumentException("No ship or outfit has the attribute '" + attribute + "'.");
+		return column;
+	}
+
+
+
+	// Returns the rows of the type in order of the attribute, sorting them
+	// the first time they are asked for.
+	private Sorted sorted(String type, String attribute){
+		return sorted.computeIfAbsent(type + "\n" + attribute, k -> {
+			double[] column = column(attribute);
+			int from = table.getFirstRow(type);
+			int to = table.getEndRow(type);
+			Integer[] order = new Integer[to - from];
+			for(int i = 0; i < order.length; ++i)
+				order[i] = from + i;
+			Arrays.sort(order, (a, b) -> Double.compare(column[a], column[b]));
+			int[] rows = new int[order.length];
+			double[] values = new double[order.length];
+			for(int i = 0; i < order.length; ++i){
+				rows[i] = order[i];
+				values[i] = column[order[i]];
+			}
+			return new Sorted(rows, values);
+		});
+	}
+
+
+
+	// Returns the [start, end) range of sorted rows that meet the condition.
+	private static int[] range(Sorted s, Condition condition){
+		int lower = lowerBound(s.values, condition.value);
+		int upper = upperBound(s.values, condition.value);
+		switch(condition.operator){
+			case "<": return new int[]{0, lower};
+			case "<=": return new int[]{0, upper};
+			case ">": return new int[]{upper, s.values.length};
+			case ">=": return new int[]{lower, s.values.length};
+			default: return new int[]{lower, upper};
+		}
+	}
+
+
+
+	// Returns the first position whose value is not less than the given value.
+	private static int lowerBound(double[] values, double value){
+		int low = 0;
+		int high = values.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(values[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+
+	// Returns the first position whose value is greater than the given value.
+	private static int upperBound(double[] values, double value){
+		int low = 0;
+		int high = values.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(values[mid] <= value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+
+	private static boolean isOperator(String word){
+		for(String op : OPERATORS)
+			if(op.equals(word))
+				return true;
+		return false;
+	}
+
+
+
+	private static boolean isKeyword(String word){
+		return word.equalsIgnoreCase("asc") || word.equalsIgnoreCase("desc") || word.equalsIgnoreCase("limit");
+	}
+
+
+
+	private static String join(List<String> words, int from, int to){
+		StringBuilder sb = new StringBuilder();
+		for(int i = from; i < to; ++i)
+			sb.append(i > from ? " " : "").append(words.get(i));
+		return sb.toString();
+	}
+
+
+
+	private static double number(String word){
+		try{
+			return Double.parseDouble(word);
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("'" + word + "' is not a number.");
+		}
+	}
+}
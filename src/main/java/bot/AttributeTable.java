@@ -0,0 +1,316 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// The "attributes" of every ship and outfit, and the "weapon" values of every
+// outfit, parsed once into one column of numbers per attribute. Each ship or
+// outfit is a row of the table. Ships also keep their default outfits as
+// rows, so the stats of a loadout are sums over arrays, with no data text
+// read at all.
+public class AttributeTable {
+
+	// Named columns of numbers, each holding one value per row (0 if unset).
+	private static final class Columns {
+		final HashMap<String, double[]> byName = new HashMap<>();
+		final double[] zeros;
+
+		Columns(int rows){
+			zeros = new double[rows];
+		}
+
+		void set(String name, int row, double value){
+			double[] column = byName.get(name);
+			if(column == null){
+				column = new double[zeros.length];
+				byName.put(name, column);
+			}
+			column[row] = value;
+		}
+
+		double[] get(String name){
+			double[] column = byName.get(name);
+			return column == null ? zeros : column;
+		}
+
+		// Give the row the values of another row.
+		void copy(int from, int to){
+			for(double[] column : byName.values())
+				column[to] = column[from];
+		}
+	}
+
+	// The stats of a ship with its default outfits. Rates are per second.
+	public static final class Loadout {
+		public double mass;
+		public double maxSpeed;
+		public double acceleration;
+		public double turnRate;
+		public double shields;
+		public double hull;
+		public double idleEnergy;
+		public double movingEnergy;
+		public double firingEnergy;
+		public double idleHeat;
+		public double movingHeat;
+		public double firingHeat;
+		public double shieldDps;
+		public double hullDps;
+		public double outfitSpace;
+		public double weaponCapacity;
+		public double engineCapacity;
+		public String category = "";
+		// Outfits in the loadout that are not in the data.
+		public int unknownOutfits;
+	}
+
+	// By node id; -1 for nodes that are not ships or outfits.
+	private final int[] rowOf;
+	// By row: the node, and whether it is a ship variant.
+	private final DataIndex.Entry[] entries;
+	private final boolean[] variant;
+	private final int shipRows;
+	private final String[] categories;
+	private final Columns attributes;
+	private final Columns weapons;
+	// By row: the outfits a ship has by default, and how many of each.
+	private final int[][] outfits;
+	private final int[][] outfitCounts;
+	private final int[] unknownOutfits;
+
+
+
+	public AttributeTable(DataIndex index){
+		List<DataIndex.Entry> ships = index.getEntries("ship");
+		List<DataIndex.Entry> outfitEntries = index.getEntries("outfit");
+		int rows = ships.size() + outfitEntries.size();
+		rowOf = new int[index.size()];
+		for(int i = 0; i < rowOf.length; ++i)
+			rowOf[i] = -1;
+		entries = new DataIndex.Entry[rows];
+		variant = new boolean[rows];
+		shipRows = ships.size();
+		categories = new String[rows];
+		attributes = new Columns(rows);
+		weapons = new Columns(rows);
+		outfits = new int[rows][];
+		outfitCounts = new int[rows][];
+		unknownOutfits = new int[rows];
+
+		// Outfits first, so that ships can find theirs.
+		HashMap<String, Integer> outfitRows = new HashMap<>();
+		int row = ships.size();
+		for(DataIndex.Entry entry : outfitEntries){
+			DataNode node = DataNode.parse(index.getText(entry));
+			rowOf[entry.id] = row;
+			entries[row] = entry;
+			if(node != null){
+				// An outfit's attributes are listed directly beneath it.
+				readAttributes(node, row);
+				DataNode weapon = node.getChild("weapon");
+				if(weapon != null)
+					for(DataNode child : weapon.getChildren())
+						if(child.hasValue(1))
+							weapons.set(child.getToken(0), row, child.getValue(1));
+			}
+			outfitRows.putIfAbsent(entry.getName(), row);
+			++row;
+		}
+
+		// A variant that does not list its attributes or outfits uses those
+		// of its base model.
+		HashMap<String, Integer> shipNames = new HashMap<>();
+		List<Integer> variants = new ArrayList<>();
+		List<DataNode> variantNodes = new ArrayList<>();
+		row = 0;
+		for(DataIndex.Entry entry : ships){
+			DataNode node = DataNode.parse(index.getText(entry));
+			rowOf[entry.id] = row;
+			entries[row] = entry;
+			if(node != null){
+				readAttributes(node.getChild("attributes"), row);
+				readOutfits(node, row, outfitRows);
+				if(node.size() > 2){
+					variant[row] = true;
+					variants.add(row);
+					variantNodes.add(node);
+				}
+				else
+					shipNames.putIfAbsent(entry.getName(), row);
+			}
+			++row;
+		}
+		for(int i = 0; i < variants.size(); ++i){
+			DataNode node = variantNodes.get(i);
+			Integer base = shipNames.get(node.getToken(1));
+			if(base == null)
+				continue;
+			int variant = variants.get(i);
+			if(node.getChild("attributes") == null){
+				attributes.copy(base, variant);
+				categories[variant] = categories[base];
+			}
+			if(node.getChild("outfits") == null){
+				outfits[variant] = outfits[base];
+				outfitCounts[variant] = outfitCounts[base];
+				unknownOutfits[variant] = unknownOutfits[base];
+			}
+		}
+	}
+
+
+
+	// Ships are the rows from 0 up to the first outfit row; outfits are the
+	// rows after that. Returns the first row of the given type.
+	public int getFirstRow(String type){
+		return type.equals("outfit") ? shipRows : 0;
+	}
+
+
+
+	// Returns the row after the last row of the given type.
+	public int getEndRow(String type){
+		if(type.equals("ship"))
+			return shipRows;
+		return type.equals("outfit") ? entries.length : 0;
+	}
+
+
+
+	public DataIndex.Entry getEntry(int row){
+		return entries[row];
+	}
+
+
+
+	public boolean isVariant(int row){
+		return variant[row];
+	}
+
+
+
+	// Returns the values of an attribute (or, failing that, of a weapon value)
+	// by row, or null if no ship or outfit has it.
+	public double[] getColumn(String attribute){
+		double[] column = attributes.byName.get(attribute);
+		return column != null ? column : weapons.byName.get(attribute);
+	}
+
+
+
+	// Returns the value of the given attribute (or weapon value) of a ship or
+	// outfit alone, or 0 if it has no such attribute.
+	public double get(DataIndex.Entry entry, String attribute){
+		int row = entry.id < rowOf.length ? rowOf[entry.id] : -1;
+		double[] column = getColumn(attribute);
+		return row < 0 || column == null ? 0. : column[row];
+	}
+
+
+
+	/**
+	 * Sum up the stats of a ship with its default outfits.
+	 * @param  DataIndex.Entry ship          The ship node.
+	 * @return                 The stats, or null if the node is not a ship.
+	 */
+	public Loadout getLoadout(DataIndex.Entry ship){
+		int row = ship.id < rowOf.length ? rowOf[ship.id] : -1;
+		if(row < 0 || !ship.type.equals("ship"))
+			return null;
+
+		Loadout l = new Loadout();
+		l.category = categories[row] == null ? "" : categories[row];
+		l.unknownOutfits = unknownOutfits[row];
+		l.mass = total("mass", row);
+		l.shields = total("shields", row);
+		l.hull = total("hull", row);
+		double drag = total("drag", row);
+		double thrust = total("thrust", row);
+		// The game moves ships 60 times per second.
+		if(drag > 0.)
+			l.maxSpeed = 60. * thrust / drag;
+		if(l.mass > 0.){
+			l.acceleration = 3600. * thrust / l.mass;
+			l.turnRate = 60. * total("turn", row) / l.mass;
+		}
+		l.idleEnergy = 60. * (total("energy generation", row) + total("solar collection", row)
+				- total("energy consumption", row) - total("cooling energy", row));
+		l.movingEnergy = 60. * (total("thrusting energy", row) + total("turning energy", row));
+		l.idleHeat = 60. * (total("heat generation", row) - total("cooling", row) - total("active cooling", row));
+		l.movingHeat = 60. * (total("thrusting heat", row) + total("turning heat", row));
+		l.outfitSpace = total("outfit space", row);
+		l.weaponCapacity = total("weapon capacity", row);
+		l.engineCapacity = total("engine capacity", row);
+
+		if(outfits[row] != null){
+			double[] reload = weapons.get("reload");
+			double[] shieldDamage = weapons.get("shield damage");
+			double[] hullDamage = weapons.get("hull damage");
+			double[] firingEnergy = weapons.get("firing energy");
+			double[] firingHeat = weapons.get("firing heat");
+			for(int i = 0; i < outfits[row].length; ++i){
+				int outfit = outfits[row][i];
+				double perSecond = 60. * outfitCounts[row][i] / Math.max(1., reload[outfit]);
+				l.shieldDps += perSecond * shieldDamage[outfit];
+				l.hullDps += perSecond * hullDamage[outfit];
+				l.firingEnergy += perSecond * firingEnergy[outfit];
+				l.firingHeat += perSecond * firingHeat[outfit];
+			}
+		}
+		return l;
+	}
+
+
+
+	// The value of an attribute for the ship in the given row, plus that of
+	// each of its outfits.
+	private double total(String attribute, int row){
+		double[] column = attributes.get(attribute);
+		double sum = column[row];
+		if(outfits[row] != null)
+			for(int i = 0; i < outfits[row].length; ++i)
+				sum += outfitCounts[row][i] * column[outfits[row][i]];
+		return sum;
+	}
+
+
+
+	private void readAttributes(DataNode block, int row){
+		if(block == null)
+			return;
+		for(DataNode child : block.getChildren()){
+			if(child.getToken(0).equals("category"))
+				categories[row] = child.getToken(1);
+			else if(child.hasValue(1))
+				attributes.set(child.getToken(0), row, child.getValue(1));
+		}
+	}
+
+
+
+	// Each line of a ship's "outfits" names an outfit, optionally followed by
+	// how many of it the ship has.
+	private void readOutfits(DataNode node, int row, HashMap<String, Integer> outfitRows){
+		DataNode block = node.getChild("outfits");
+		if(block == null)
+			return;
+		List<DataNode> children = block.getChildren();
+		int[] rows = new int[children.size()];
+		int[] counts = new int[children.size()];
+		int found = 0;
+		for(DataNode child : children){
+			Integer outfit = outfitRows.get(child.getToken(0));
+			if(outfit == null){
+				++unknownOutfits[row];
+				continue;
+			}
+			rows[found] = outfit;
+			counts[found] = child.hasValue(1) ? (int)child.getValue(1) : 1;
+			++found;
+		}
+		outfits[row] = Arrays.copyOf(rows, found);
+		outfitCounts[row] = Arrays.copyOf(counts, found);
+	}
+}
@@ -0,0 +1,193 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// The differences between two versions of the data: the root nodes that were
+// added, removed or changed, and within each changed node, the lines that
+// were added, removed or given new values. Root nodes with the same content
+// hash in both versions are skipped without being read, and within a changed
+// node, so are the children whose subtree hashes match.
+public class DataDiff {
+
+	public static final class Result {
+		public int added = 0;
+		public int removed = 0;
+		public int changed = 0;
+		// One line per difference, indented to show where it is.
+		public final List<String> lines = new ArrayList<>();
+
+
+
+		public boolean isEmpty(){
+			return lines.isEmpty();
+		}
+
+
+
+		public String getSummary(){
+			return added + " added, " + removed + " removed, " + changed + " changed";
+		}
+	}
+
+
+
+	/**
+	 * Compare two versions of the data.
+	 * @param  DataIndex before        The older data.
+	 * @param  DataIndex after         The newer data.
+	 * @param  String    filter        Only compare root nodes of this type, or
+	 *                                 whose defining line contains this text.
+	 *                                 Nullstring to compare everything.
+	 * @return           The differences.
+	 */
+	public static Result compare(DataIndex before, DataIndex after, String filter){
+		NodeHashes beforeHashes = before.getDerived(NodeHashes.class, NodeHashes::new);
+		NodeHashes afterHashes = after.getDerived(NodeHashes.class, NodeHashes::new);
+		Result result = new Result();
+
+		// Only the first definition of a node counts, as in lookups.
+		for(DataIndex.Entry entry : after.getEntries()){
+			String line = entry.getLine();
+			if(after.find(line) != entry || !matches(entry, filter))
+				continue;
+			DataIndex.Entry old = before.find(line);
+			if(old == null){
+				result.lines.add("+ " + line);
+				++result.added;
+				continue;
+			}
+			if(beforeHashes.getHash(old) == afterHashes.getHash(entry))
+				continue;
+			// The text differs, but perhaps only in its spacing or comments.
+			DataNode a = DataNode.parse(before.getText(old));
+			DataNode b = DataNode.parse(after.getText(entry));
+			if(a == null || b == null || a.getHash() == b.getHash())
+				continue;
+			result.lines.add("~ " + line);
+			++result.changed;
+			compareChildren(a, b, 1, result.lines);
+		}
+		for(DataIndex.Entry entry : before.getEntries()){
+			String line = entry.getLine();
+			if(before.find(line) == entry && after.find(line) == null && matches(entry, filter)){
+				result.lines.add("- " + line);
+				++result.removed;
+			}
+		}
+		return result;
+	}
+
+
+
+	private static boolean matches(DataIndex.Entry entry, String filter){
+		return filter.isEmpty() || entry.type.equalsIgnoreCase(filter)
+				|| entry.getLine().toLowerCase().contains(filter.toLowerCase());
+	}
+
+
+
+	// Children are matched up by their key (the tokens before the first
+	// number), and by which of the children with that key they are.
+	private static void compareChildren(DataNode a, DataNode b, int depth, List<String> lines){
+		HashMap<String, List<DataNode>> before = new HashMap<>();
+		for(DataNode child : a.getChildren()){
+			List<DataNode> same = before.get(key(child));
+			if(same == null){
+				same = new ArrayList<>();
+				before.put(key(child), same);
+			}
+			same.add(child);
+		}
+
+		String indent = indent(depth);
+		HashMap<String, Integer> seen = new HashMap<>();
+		for(DataNode child : b.getChildren()){
+			String key = key(child);
+			int occurrence = seen.containsKey(key) ? seen.get(key) : 0;
+			seen.put(key, occurrence + 1);
+			List<DataNode> same = before.get(key);
+			DataNode old = same != null && occurrence < same.size() ? same.get(occurrence) : null;
+			if(old == null){
+				lines.add(indent + "+ " + format(child));
+				continue;
+			}
+			if(old.getHash() == child.getHash())
+				continue;
+
+			String oldValue = value(old);
+			String newValue = value(child);
+			if(!oldValue.equals(newValue))
+				lines.add(indent + "~ " + key + ": " + oldValue + " -> " + newValue + delta(old, child));
+			else
+				lines.add(indent + "~ " + format(child));
+			compareChildren(old, child, depth + 1, lines);
+		}
+
+		// Anything left over was removed. List it in the order of the data.
+		HashMap<String, Integer> removed = new HashMap<>();
+		for(DataNode child : a.getChildren()){
+			String key = key(child);
+			int occurrence = removed.containsKey(key) ? removed.get(key) : 0;
+			removed.put(key, occurrence + 1);
+			if(occurrence >= (seen.containsKey(key) ? seen.get(key) : 0))
+				lines.add(indent + "- " + format(child));
+		}
+	}
+
+
+
+	// The tokens of the node up to its first number, e.g. "\"mass\"" for
+	// "\"mass\" 740" or "pos" for "pos -500 100".
+	private static String key(DataNode node){
+		StringBuilder sb = new StringBuilder(DataNode.quote(node.getToken(0)));
+		for(int i = 1; i < node.size() && !node.hasValue(i); ++i)
+			sb.append(' ').append(DataNode.quote(node.getToken(i)));
+		return sb.toString();
+	}
+
+
+
+	// The tokens of the node from its first number on, or nullstring.
+	private static String value(DataNode node){
+		int i = 1;
+		while(i < node.size() && !node.hasValue(i))
+			++i;
+		StringBuilder sb = new StringBuilder();
+		for( ; i < node.size(); ++i)
+			sb.append(sb.length() > 0 ? " " : "").append(DataNode.quote(node.getToken(i)));
+		return sb.toString();
+	}
+
+
+
+	// For a single number that changed, how much it changed by.
+	private static String delta(DataNode before, DataNode after){
+		int i = after.size() - 1;
+		if(before.size() != after.size() || !before.hasValue(i) || !after.hasValue(i) || (i > 1 && after.hasValue(i - 1)))
+			return "";
+		double change = after.getValue(i) - before.getValue(i);
+		String number = change == Math.rint(change) ? String.valueOf((long)change) : String.valueOf(change);
+		return " (" + (change > 0 ? "+" : "") + number + ")";
+	}
+
+
+
+	// Write the line of the node as it would be in a data file.
+	private static String format(DataNode node){
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < node.size(); ++i)
+			sb.append(i > 0 ? " " : "").append(DataNode.quote(node.getToken(i)));
+		return sb.toString();
+	}
+
+
+
+	private static String indent(int depth){
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < depth; ++i)
+			sb.append("  ");
+		return sb.toString();
+	}
+}
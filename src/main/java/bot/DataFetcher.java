@@ -0,0 +1,285 @@
+package bot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Downloads the upstream data files with a bounded number of parallel
+// requests. Every file is kept in a local cache along with its ETag and
+// Last-Modified headers, so that files which did not change upstream are
+// answered with "304 Not Modified" and read from disk instead.
+public class DataFetcher {
+
+	private static final int THREADS = 6;
+	private static final int TIMEOUT_MS = 15000;
+	private static final String META_FILE = "datafiles.properties";
+	private static final String LISTING_FILE = "listing.json";
+
+	private final String baseUrl;
+	private final Path cacheDir;
+	private final Properties meta = new Properties();
+
+
+
+	public DataFetcher(String baseUrl, Path cacheDir){
+		this.baseUrl = baseUrl;
+		this.cacheDir = cacheDir;
+		try{
+			Files.createDirectories(cacheDir);
+			Path metaPath = cacheDir.resolve(META_FILE);
+			if(Files.exists(metaPath))
+				try(Reader r = Files.newBufferedReader(metaPath, StandardCharsets.UTF_8)){
+					meta.load(r);
+				}
+		}
+		catch(IOException e){
+			System.out.println(e.toString());
+		}
+	}
+
+
+
+	/**
+	 * Fetch the named data files in parallel.
+	 * @param  List<String> names  The file names, relative to the base URL and without ".txt".
+	 * @return             The file contents, in the same order as the names. A file
+	 *                     that could neither be downloaded nor read from the cache is null.
+	 */
+	public List<String> fetch(List<String> names){
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, names.size())));
+		List<Future<String>> pending = new ArrayList<>(names.size());
+		try{
+			for(String name : names)
+				pending.add(pool.submit(() -> fetchOne(name)));
+
+			// Collect in submission order so the assembled data keeps the file order.
+			List<String> results = new ArrayList<>(names.size());
+			for(Future<String> f : pending){
+				try{
+					results.add(f.get());
+				}
+				catch(ExecutionException e){
+					System.out.println(e.getCause().toString());
+					results.add(null);
+				}
+			}
+			saveMeta();
+			return results;
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			List<String> results = new ArrayList<>(names.size());
+			for(int i = 0; i < names.size(); ++i)
+				results.add(null);
+			return results;
+		}
+		finally{
+			pool.shutdownNow();
+		}
+	}
+
+
+
+	/**
+	 * Ask the GitHub contents API for the git blob hash of every file in the
+	 * data directory. This is a single request, and is itself conditional.
+	 * @param  String apiUrl        The contents API URL of the data directory.
+	 * @return        A map of file name (as in dataFileNames.txt) to blob hash,
+	 *                or null if the listing could not be read.
+	 */
+	public Map<String, String> fetchHashes(String apiUrl){
+		Path local = cacheDir.resolve(LISTING_FILE);
+		HttpURLConnection conn = null;
+		try{
+			String listing;
+			conn = (HttpURLConnection)new URL(apiUrl).openConnection();
+			conn.setConnectTimeout(TIMEOUT_MS);
+			conn.setReadTimeout(TIMEOUT_MS);
+			conn.setRequestProperty("Accept", "application/vnd.github.v3+json");
+			String etag = getMeta("listing.etag");
+			if(etag != null && Files.exists(local))
+				conn.setRequestProperty("If-None-Match", etag);
+			int status = conn.getResponseCode();
+			if(status == HttpURLConnection.HTTP_NOT_MODIFIED && Files.exists(local))
+				listing = readLocal(local);
+			else if(status == HttpURLConnection.HTTP_OK){
+				byte[] body;
+				try(InputStream in = conn.getInputStream()){
+					body = readAll(in);
+				}
+				Files.write(local, body);
+				setMeta("listing.etag", conn.getHeaderField("ETag"));
+				saveMeta();
+				listing = new String(body, StandardCharsets.UTF_8);
+			}
+			else
+				throw new IOException("HTTP " + status + " for the data listing");
+
+			Map<String, String> hashes = new HashMap<>();
+			JSONArray files = new JSONArray(listing);
+			for(int i = 0; i < files.length(); ++i){
+				JSONObject file = files.getJSONObject(i);
+				String name = file.getString("name");
+				if(name.endsWith(".txt"))
+					hashes.put(name.substring(0, name.length() - 4).replace(" ", "%20"), file.getString("sha"));
+			}
+			return hashes;
+		}
+		catch(IOException | JSONException e){
+			System.out.println(e.toString());
+			return null;
+		}
+		finally{
+			if(conn != null)
+				conn.disconnect();
+		}
+	}
+
+
+
+	// Returns the git blob hash of the given content, the same hash that
+	// GitHub reports for a file with that content.
+	public static String blobHash(String content){
+		try{
+			byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+			MessageDigest sha = MessageDigest.getInstance("SHA-1");
+			sha.update(("blob " + bytes.length + "\0").getBytes(StandardCharsets.UTF_8));
+			byte[] digest = sha.digest(bytes);
+			StringBuilder sb = new StringBuilder(40);
+			for(byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		}
+		catch(NoSuchAlgorithmException e){
+			// Every Java platform is required to support SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+
+	// Download a single file, or reuse the cached copy if the server reports
+	// it unchanged (or cannot be reached at all).
+	private String fetchOne(String name){
+		Path local = cacheDir.resolve(name + ".txt");
+		boolean haveLocal = Files.exists(local);
+		HttpURLConnection conn = null;
+		try{
+			conn = (HttpURLConnection)new URL(baseUrl + name + ".txt").openConnection();
+			conn.setConnectTimeout(TIMEOUT_MS);
+			conn.setReadTimeout(TIMEOUT_MS);
+			if(haveLocal){
+				String etag = getMeta(name + ".etag");
+				String modified = getMeta(name + ".modified");
+				if(etag != null)
+					conn.setRequestProperty("If-None-Match", etag);
+				if(modified != null)
+					conn.setRequestProperty("If-Modified-Since", modified);
+			}
+
+			int status = conn.getResponseCode();
+			if(status == HttpURLConnection.HTTP_NOT_MODIFIED && haveLocal)
+				return readLocal(local);
+			if(status != HttpURLConnection.HTTP_OK)
+				throw new IOException("HTTP " + status + " for " + name);
+
+			byte[] body;
+			try(InputStream in = conn.getInputStream()){
+				body = readAll(in);
+			}
+			Files.write(local, body);
+			setMeta(name + ".etag", conn.getHeaderField("ETag"));
+			setMeta(name + ".modified", conn.getHeaderField("Last-Modified"));
+			return new String(body, StandardCharsets.UTF_8);
+		}
+		catch(IOException e){
+			// A file that is expected to exist might not (for example,
+			// lookups are being reinitialized but dataFileNames is old
+			// and the file was renamed on GitHub).
+			System.out.println(e.toString());
+			if(haveLocal)
+				try{
+					return readLocal(local);
+				}
+				catch(IOException x){
+					System.out.println(x.toString());
+				}
+			return null;
+		}
+		finally{
+			if(conn != null)
+				conn.disconnect();
+		}
+	}
+
+
+
+	private static String readLocal(Path local) throws IOException {
+		return new String(Files.readAllBytes(local), StandardCharsets.UTF_8);
+	}
+
+
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		byte[] buffer = new byte[16 * 1024];
+		int read;
+		while((read = in.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+
+
+	private String getMeta(String key){
+		synchronized(meta){
+			return meta.getProperty(key);
+		}
+	}
+
+
+
+	private void setMeta(String key, String value){
+		synchronized(meta){
+			if(value == null)
+				meta.remove(key);
+			else
+				meta.setProperty(key, value);
+		}
+	}
+
+
+
+	private void saveMeta(){
+		synchronized(meta){
+			try(Writer w = Files.newBufferedWriter(cacheDir.resolve(META_FILE), StandardCharsets.UTF_8)){
+				meta.store(w, "ETag and Last-Modified headers of the cached data files.");
+			}
+			catch(IOException e){
+				System.out.println(e.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package bot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// An index of every root node in the loaded data files, built once when the
+// data is read. Each root node ("ship \"Falcon\"", "outfit \"Flamethrower\"")
+// maps to the span of the data that holds it and its children, so finding a
+// node is a single hash probe instead of a scan of the whole data.
+//
+// The data itself is kept as UTF-8 bytes outside of the Java heap (in a
+// direct buffer, or in the memory-mapped snapshot file), and only the text
+// of the nodes that are asked for is decoded.
+public class DataIndex {
+
+	// A root node of the data files.
+	public static class Entry {
+		// The position of this node in the order it was read.
+		public final int id;
+		// The first word of the defining line, e.g. "ship".
+		public final String type;
+		// The remainder of the defining line, e.g. "\"Falcon\"".
+		public final String key;
+		// The span of the data (in bytes) covered by this node. The start is
+		// the newline that precedes the defining line.
+		final int start;
+		final int end;
+		// If true, the span is in the data of the index this one is based on.
+		final boolean shared;
+
+		Entry(int id, String type, String key, int start, int end){
+			this(id, type, key, start, end, false);
+		}
+
+		Entry(int id, String type, String key, int start, int end, boolean shared){
+			this.id = id;
+			this.type = type;
+			this.key = key;
+			this.start = start;
+			this.end = end;
+			this.shared = shared;
+		}
+
+
+
+		// Returns the full defining line, e.g. "ship \"Falcon\"".
+		public String getLine(){
+			return key.length() > 0 ? type + " " + key : type;
+		}
+
+
+
+		// Returns the name of this node without its quotes, e.g. "Falcon".
+		// Ship variants keep only their variant name.
+		public String getName(){
+			String name = key;
+			if(name.endsWith("\"") && name.lastIndexOf('"', name.length() - 2) > -1)
+				name = name.substring(name.lastIndexOf('"', name.length() - 2));
+			else if(name.endsWith("`") && name.lastIndexOf('`', name.length() - 2) > -1)
+				name = name.substring(name.lastIndexOf('`', name.length() - 2));
+			return name.replace("\"", "").replace("`", "").trim();
+		}
+	}
+
+
+
+	// The part of the data that came from one data file.
+	public static class Segment {
+		// The file name, as listed in dataFileNames.txt.
+		public final String name;
+		// The git blob hash of the file's content.
+		public final String hash;
+		// The span of the data (in bytes) holding the file.
+		final int start;
+		final int end;
+		// The nodes of this file are entries [firstEntry, firstEntry + entryCount).
+		final int firstEntry;
+		final int entryCount;
+
+		Segment(String name, String hash, int start, int end, int firstEntry, int entryCount){
+			this.name = name;
+			this.hash = hash;
+			this.start = start;
+			this.end = end;
+			this.firstEntry = firstEntry;
+			this.entryCount = entryCount;
+		}
+	}
+
+
+
+	// Read-only; always accessed through absolute gets or duplicates, so any
+	// number of threads may read it at once.
+	private final ByteBuffer data;
+	// Another version of the data whose nodes this one shares, or null.
+	private final DataIndex base;
+	private final ArrayList<Segment> segments = new ArrayList<>();
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	private final HashMap<String, Entry> byLine = new HashMap<>();
+	private final HashMap<String, List<Entry>> byType = new HashMap<>();
+	// Structures built from this data (name indexes and the like). They are
+	// kept with the index so that they are replaced along with it.
+	private final ConcurrentHashMap<Class<?>, Object> derived = new ConcurrentHashMap<>();
+
+
+
+	public DataIndex(String text){
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		data = buffer.asReadOnlyBuffer();
+		base = null;
+		build(0, bytes.length);
+		segments.add(new Segment("", "", 0, bytes.length, 0, entries.size()));
+	}
+
+
+
+	// Restore an index whose nodes were already found, e.g. from a snapshot.
+	DataIndex(ByteBuffer data, List<Segment> files, List<Entry> nodes){
+		this(data, null, files, nodes);
+	}
+
+
+
+	private DataIndex(ByteBuffer data, DataIndex base, List<Segment> files, List<Entry> nodes){
+		this.data = data.isReadOnly() ? data : data.asReadOnlyBuffer();
+		this.base = base;
+		segments.addAll(files);
+		for(Entry entry : nodes)
+			add(entry);
+	}
+
+
+
+	/**
+	 * Build an index over the given data files, joined in order. A file whose
+	 * name and hash match a file of the previous index is copied from it
+	 * instead of being parsed again.
+	 * @param  List<String>  names         The file names.
+	 * @param  List<String>  hashes        The hash of each file's content.
+	 * @param  List<String>  texts         The content of each file. May be null
+	 *                                     for files reused from 'previous'.
+	 * @param  DataIndex     previous      The index to reuse files from, or null.
+	 * @return               The new index.
+	 */
+	public static DataIndex build(List<String> names, List<String> hashes, List<String> texts, DataIndex previous){
+		HashMap<String, Segment> reusable = new HashMap<>();
+		if(previous != null)
+			for(Segment segment : previous.segments)
+				reusable.put(segment.name + "\n" + segment.hash, segment);
+
+		// Encode the new files and find where each file will start.
+		final byte[] separator = "\n~\n".getBytes(StandardCharsets.UTF_8);
+		int[] starts = new int[names.size() + 1];
+		Segment[] reused = new Segment[names.size()];
+		byte[][] encoded = new byte[names.size()][];
+		int size = 0;
+		for(int i = 0; i < names.size(); ++i){
+			starts[i] = size;
+			reused[i] = reusable.get(names.get(i) + "\n" + hashes.get(i));
+			if(reused[i] != null)
+				size += reused[i].end - reused[i].start;
+			else if(texts.get(i) != null){
+				String file = texts.get(i);
+				if(file.length() > 0 && file.charAt(file.length() - 1) != '\n')
+					file += '\n';
+				encoded[i] = file.getBytes(StandardCharsets.UTF_8);
+				size += encoded[i].length + separator.length;
+			}
+		}
+		starts[names.size()] = size;
+
+		// Join the files, copying reused ones straight from the old data.
+		ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+		for(int i = 0; i < names.size(); ++i){
+			if(reused[i] != null){
+				ByteBuffer old = previous.data.duplicate();
+				old.limit(reused[i].end).position(reused[i].start);
+				buffer.put(old);
+			}
+			else if(encoded[i] != null){
+				buffer.put(encoded[i]).put(separator);
+				encoded[i] = null;
+			}
+		}
+		buffer.flip();
+
+		DataIndex index = new DataIndex(buffer, new ArrayList<Segment>(), new ArrayList<Entry>());
+		for(int i = 0; i < names.size(); ++i){
+			int first = index.entries.size();
+			if(reused[i] != null){
+				// Shift the old nodes to where the file now starts.
+				int shift = starts[i] - reused[i].start;
+				for(int e = reused[i].firstEntry; e < reused[i].firstEntry + reused[i].entryCount; ++e){
+					Entry old = previous.entries.get(e);
+					index.add(new Entry(index.entries.size(), old.type, old.key, old.start + shift, old.end + shift));
+				}
+			}
+			else
+				index.build(starts[i], starts[i + 1]);
+			index.segments.add(new Segment(names.get(i), hashes.get(i), starts[i], starts[i + 1], first, index.entries.size() - first));
+		}
+		return index;
+	}
+
+
+
+	/**
+	 * Build an index over another version of the data files. Every node
+	 * whose text is the same as a node of the base index is stored only
+	 * once, in the base, so a version that differs little from the base
+	 * costs little memory.
+	 * @param  List<String> names         The file names.
+	 * @param  List<String> texts         The content of each file, or null
+	 *                                    for files that could not be read.
+	 * @param  DataIndex    base          The index to share nodes with.
+	 * @return              The new index. It has no segments, so it can
+	 *                      neither be updated nor saved.
+	 */
+	public static DataIndex buildVersion(List<String> names, List<String> texts, DataIndex base){
+		List<String> noHashes = new ArrayList<>(Collections.nCopies(names.size(), ""));
+		DataIndex full = build(names, noHashes, texts, null);
+		NodeHashes baseHashes = base.getDerived(NodeHashes.class, NodeHashes::new);
+
+		// Find the nodes the base already has, and the size of the rest.
+		Entry[] inBase = new Entry[full.size()];
+		int size = 0;
+		for(Entry entry : full.entries){
+			Entry match = baseHashes.find(full.getContentHash(entry));
+			if(match != null && base.bytes(match).equals(full.bytes(entry)))
+				inBase[entry.id] = match;
+			else
+				size += 1 + full.bytes(entry).remaining();
+		}
+
+		// Copy the other nodes, each with the newline that precedes it.
+		ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+		List<Entry> nodes = new ArrayList<>(full.size());
+		for(Entry entry : full.entries){
+			Entry match = inBase[entry.id];
+			if(match != null){
+				nodes.add(new Entry(entry.id, entry.type, entry.key, match.start, match.end, true));
+				continue;
+			}
+			int start = buffer.position();
+			buffer.put((byte)'\n').put(full.bytes(entry));
+			nodes.add(new Entry(entry.id, entry.type, entry.key, start, buffer.position()));
+		}
+		buffer.flip();
+		return new DataIndex(buffer, base, new ArrayList<Segment>(), nodes);
+	}
+
+
+
+	/**
+	 * Build an index over some data files laid over the base data, as a
+	 * plugin is: the nodes of the files come first, so they are found instead
+	 * of the base nodes they redefine, and every node of the base follows.
+	 * Only the nodes that are not already in the base take up memory.
+	 * @param  List<String> names         The file names.
+	 * @param  List<String> texts         The content of each file.
+	 * @param  DataIndex    base          The data to lay the files over. It
+	 *                                    must not itself be based on another
+	 *                                    index.
+	 * @return              The new index. It has no segments.
+	 */
+	public static DataIndex buildOverlay(List<String> names, List<String> texts, DataIndex base){
+		if(base.base != null)
+			throw new IllegalArgumentException("Cannot lay data over another version.");
+		DataIndex own = buildVersion(names, texts, base);
+		List<Entry> nodes = new ArrayList<>(own.size() + base.size());
+		nodes.addAll(own.entries);
+		for(Entry entry : base.entries)
+			nodes.add(new Entry(nodes.size(), entry.type, entry.key, entry.start, entry.end, true));
+		return new DataIndex(own.data, base, new ArrayList<Segment>(), nodes);
+	}
+
+
+
+	// Walk the given part of the data once, recording every line that starts
+	// in the first column. A node continues through every following line that
+	// begins with whitespace or a comment, or is empty; so a blank line with
+	// spaces or a Windows line ending in it does not cut a node short. All of
+	// these markers are ASCII, so they can be found in the UTF-8 bytes directly.
+	private void build(int from, int to){
+		int lineStart = from;
+		while(lineStart < to){
+			int lineEnd = indexOf('\n', lineStart, to);
+			byte first = data.get(lineStart);
+			if(first == '\t' || first == '#' || first == '\n' || first == '\r'
+					|| first == ' ' || first == '~'){
+				lineStart = lineEnd + 1;
+				continue;
+			}
+
+			// Find the end of this node's children.
+			int end = lineEnd;
+			while(end + 1 < to){
+				byte next = data.get(end + 1);
+				if(next != '\t' && next != ' ' && next != '\r' && next != '\n' && next != '#')
+					break;
+				end = indexOf('\n', end + 1, to);
+			}
+			// Blank lines after the last child are not part of the node, so
+			// that the last node of a file is the same as it is elsewhere.
+			while(end > lineEnd && isBlank(data.get(end - 1)))
+				--end;
+
+			String line = decode(lineStart, lineEnd).trim();
+			int space = line.indexOf(' ');
+			String type = space < 0 ? line : line.substring(0, space);
+			String key = space < 0 ? "" : line.substring(space + 1).trim();
+			add(new Entry(entries.size(), type, key, lineStart - 1, end));
+
+			lineStart = end + 1;
+		}
+	}
+
+
+
+	private static boolean isBlank(byte b){
+		return b == '\n' || b == '\r' || b == '\t' || b == ' ';
+	}
+
+
+
+	// Returns the position of the first 'b' in [from, to), or 'to' if there is none.
+	private int indexOf(char b, int from, int to){
+		for(int i = from; i < to; ++i)
+			if(data.get(i) == b)
+				return i;
+		return to;
+	}
+
+
+
+	private String decode(int start, int end){
+		return decode(data, start, end);
+	}
+
+
+
+	private static String decode(ByteBuffer buffer, int start, int end){
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(end).position(start);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+
+
+	// Returns the bytes of the given node, without the newline before it.
+	private ByteBuffer bytes(Entry entry){
+		ByteBuffer slice = (entry.shared ? base.data : data).duplicate();
+		slice.limit(entry.end).position(entry.start + 1);
+		return slice;
+	}
+
+
+
+	private void add(Entry entry){
+		entries.add(entry);
+		// The first definition wins, as in the game's own lookup order.
+		byLine.putIfAbsent(entry.getLine(), entry);
+		List<Entry> ofType = byType.get(entry.type);
+		if(ofType == null){
+			ofType = new ArrayList<>();
+			byType.put(entry.type, ofType);
+		}
+		ofType.add(entry);
+	}
+
+
+
+	// Find the root node defined by exactly this line, e.g. "ship \"Falcon\"".
+	// Returns null if there is no such node.
+	public Entry find(String line){
+		return byLine.get(line);
+	}
+
+
+
+	// Find the root node of the given type whose key is exactly 'key'.
+	// Returns null if there is no such node.
+	public Entry find(String type, String key){
+		return byLine.get(type + " " + key);
+	}
+
+
+
+	// Find the root node of the given type with the given name, accepting
+	// either the quoted or the bare form of the name.
+	public Entry findNamed(String type, String name){
+		Entry entry = find(type, "\"" + name + "\"");
+		return entry != null ? entry : find(type, name);
+	}
+
+
+
+	// Returns the text of the given node, beginning with the newline that
+	// precedes its defining line.
+	public String getText(Entry entry){
+		ByteBuffer buffer = entry.shared ? base.data : data;
+		if(entry.start < 0)
+			return "\n" + decode(buffer, 0, entry.end);
+		return decode(buffer, entry.start, entry.end);
+	}
+
+
+
+	// Returns a 64-bit FNV-1a hash of the text of the given node. Nodes with
+	// the same text have the same hash, no matter where they were defined.
+	public long getContentHash(Entry entry){
+		ByteBuffer bytes = bytes(entry);
+		long hash = 0xcbf29ce484222325L;
+		for(int i = bytes.position(); i < bytes.limit(); ++i){
+			hash ^= bytes.get(i) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+
+
+	public List<Entry> getEntries(){
+		return Collections.unmodifiableList(entries);
+	}
+
+
+
+	public List<Entry> getEntries(String type){
+		List<Entry> ofType = byType.get(type);
+		return ofType == null ? Collections.<Entry>emptyList() : Collections.unmodifiableList(ofType);
+	}
+
+
+
+	public List<Segment> getSegments(){
+		return Collections.unmodifiableList(segments);
+	}
+
+
+
+	// Returns the data file with the given name, or null.
+	public Segment getSegment(String name){
+		for(Segment segment : segments)
+			if(segment.name.equals(name))
+				return segment;
+		return null;
+	}
+
+
+
+	public int size(){
+		return entries.size();
+	}
+
+
+
+	// Returns a read-only view of the UTF-8 data.
+	public ByteBuffer getData(){
+		return data.duplicate();
+	}
+
+
+
+	/**
+	 * Get a structure that is built from this index, building it on first use.
+	 * @param  Class<T>                 type          The class of the structure.
+	 * @param  Function<DataIndex, T>   builder       Builds the structure from this index.
+	 * @return                          The structure, shared by all callers.
+	 */
+	public <T> T getDerived(Class<T> type, Function<DataIndex, T> builder){
+		Object value = derived.get(type);
+		if(value == null){
+			// Built outside of the map, so that builders may use other
+			// derived structures themselves.
+			value = builder.apply(this);
+			Object existing = derived.putIfAbsent(type, value);
+			if(existing != null)
+				value = existing;
+		}
+		return type.cast(value);
+	}
+}
@@ -0,0 +1,298 @@
+package bot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+// Owns the game data that lookups read. It lives as long as the bot does
+// (LookupCommands is recreated on every '-update'), so an update only has to
+// download and re-index the data files whose content changed upstream.
+public class DataLoader {
+
+	// The last good data and index, used to answer lookups right away on
+	// startup while a fresh copy is fetched in the background.
+	static final Path SNAPSHOT_PATH = Paths.get("data", "lookup.snapshot");
+	// The branch the current data is read from.
+	public static final String CURRENT = "master";
+	// How many other versions (e.g. release tags) are kept loaded at once.
+	public static final int MAX_VERSIONS = 4;
+	// How many versions are downloaded at once.
+	private static final int VERSION_LOADERS = 2;
+	// How many uploaded plugins are kept loaded at once.
+	public static final int MAX_PLUGINS = 8;
+	// A branch or tag name that is safe to use as a path and in a URL. As in
+	// git, it may not start with a dot or contain "..", so "." and ".." are
+	// never taken as directories.
+	private static final Pattern VERSION_NAME = Pattern.compile("(?!\\.)(?!.*\\.\\.)[A-Za-z0-9._-]{1,40}");
+
+	private final String dataUrl;
+	private final String apiUrl;
+	private final DataFetcher fetcher;
+	private volatile DataIndex index = new DataIndex("");
+	private boolean loaded = false;
+	// Other versions of the data, least recently used first. Each shares the
+	// nodes it has in common with the current data.
+	private final Map<String, DataIndex> versions = LruMap.synchronizedOf(MAX_VERSIONS);
+	// The versions being loaded, by name.
+	private final Map<String, CompletableFuture<DataIndex>> loading = new ConcurrentHashMap<>();
+	private static final ExecutorService versionLoader = Executors.newFixedThreadPool(VERSION_LOADERS, r -> {
+		Thread t = new Thread(r, "version-loader");
+		t.setDaemon(true);
+		return t;
+	});
+	// Uploaded plugins, by the ID of the message they were attached to,
+	// least recently used first.
+	private final Map<String, Plugin> plugins = LruMap.synchronizedOf(MAX_PLUGINS);
+
+
+
+	public DataLoader(String dataUrl, String apiUrl){
+		this.dataUrl = dataUrl;
+		this.apiUrl = apiUrl;
+		fetcher = new DataFetcher(dataUrl, Paths.get("data", "cache"));
+	}
+
+
+
+	// Returns the current data. This is never null, but is empty until the
+	// data has been loaded.
+	public DataIndex getIndex(){
+		return index;
+	}
+
+
+
+	/**
+	 * Bring the data up to date. The first call loads the snapshot, if there
+	 * is one, and refreshes it in the background; later calls compare the
+	 * upstream hash of every data file with the loaded one, and download and
+	 * re-index only the files that differ.
+	 * @return The number of data files that changed.
+	 */
+	public synchronized int update(){
+		if(!loaded){
+			loaded = true;
+			DataIndex saved = DataSnapshot.read(SNAPSHOT_PATH);
+			if(saved != null){
+				// Answer lookups at once. Whatever they need first is built on
+				// demand; the refresh builds the rest before it updates the data.
+				index = saved;
+				System.out.println("Lookups loaded from snapshot; refreshing in the background.");
+				Thread refresh = new Thread(() -> {
+					buildDerived(saved);
+					update();
+				}, "lookup-refresh");
+				refresh.setDaemon(true);
+				refresh.start();
+				return 0;
+			}
+		}
+
+		List<String> names = readFileNames();
+		if(names.isEmpty())
+			return 0;
+		DataIndex current = index;
+
+		// A single request tells which files changed, if GitHub answers it.
+		Map<String, String> remote = fetcher.fetchHashes(apiUrl);
+		List<String> toFetch = new ArrayList<>();
+		for(String name : names){
+			DataIndex.Segment segment = current.getSegment(name);
+			String hash = remote == null ? null : remote.get(name);
+			if(segment == null || hash == null || !hash.equals(segment.hash))
+				toFetch.add(name);
+		}
+		if(toFetch.isEmpty() && hasFiles(current, names))
+			return 0;
+
+		List<String> fetched = fetcher.fetch(toFetch);
+		List<String> keptNames = new ArrayList<>(names.size());
+		List<String> hashes = new ArrayList<>(names.size());
+		List<String> texts = new ArrayList<>(names.size());
+		int changed = 0;
+		for(String name : names){
+			DataIndex.Segment segment = current.getSegment(name);
+			int i = toFetch.indexOf(name);
+			String text = i < 0 ? null : fetched.get(i);
+			String hash;
+			if(text != null)
+				hash = DataFetcher.blobHash(text);
+			else if(segment != null)
+				hash = segment.hash;
+			else
+				continue;
+			if(segment == null || !hash.equals(segment.hash))
+				++changed;
+			keptNames.add(name);
+			hashes.add(hash);
+			texts.add(text);
+		}
+		if(changed == 0 && hasFiles(current, keptNames))
+			return 0;
+
+		DataIndex fresh = DataIndex.build(keptNames, hashes, texts, current);
+		if(fresh.size() > 0){
+			setIndex(fresh);
+			// Other versions and plugins are shared with the old data; rebuild
+			// versions on use, and have plugins uploaded again.
+			versions.clear();
+			plugins.clear();
+			DataSnapshot.write(fresh, SNAPSHOT_PATH);
+			System.out.println("Lookups updated: " + changed + " data file(s) changed.");
+		}
+		return changed;
+	}
+
+
+
+	/**
+	 * Get another version of the data, such as a release tag, downloading
+	 * and indexing it the first time it is asked for. Versions are loaded on
+	 * their own threads, so no caller ever waits for a download; and each is
+	 * loaded once, however many ask for it while it loads.
+	 * @param  String version       The branch or tag name, e.g. "v0.9.8".
+	 * @return        The data of that version, or null if the name is not
+	 *                valid or the version could not be loaded.
+	 */
+	public CompletableFuture<DataIndex> getVersion(String version){
+		if(version.equals(CURRENT))
+			return CompletableFuture.completedFuture(index);
+		if(!isVersionName(version))
+			return CompletableFuture.completedFuture(null);
+		DataIndex cached = versions.get(version);
+		if(cached != null)
+			return CompletableFuture.completedFuture(cached);
+
+		CompletableFuture<DataIndex> load = new CompletableFuture<>();
+		CompletableFuture<DataIndex> existing = loading.putIfAbsent(version, load);
+		if(existing != null)
+			return existing;
+		versionLoader.execute(() -> {
+			DataIndex fresh = versions.get(version);
+			try{
+				if(fresh == null)
+					fresh = loadVersion(version);
+			}
+			catch(RuntimeException e){
+				System.out.println(e.toString());
+			}
+			finally{
+				loading.remove(version);
+				load.complete(fresh);
+			}
+		});
+		return load;
+	}
+
+
+
+	// Download and index a version of the data. Returns null if it could not
+	// be loaded.
+	private DataIndex loadVersion(String version){
+		DataFetcher versionFetcher = new DataFetcher(dataUrl.replace("/" + CURRENT + "/", "/" + version + "/"),
+				Paths.get("data", "cache", "versions", version));
+		Map<String, String> listing = versionFetcher.fetchHashes(apiUrl.replace("ref=" + CURRENT, "ref=" + version));
+		if(listing == null || listing.isEmpty())
+			return null;
+		List<String> names = new ArrayList<>(listing.keySet());
+		Collections.sort(names);
+		List<String> texts = versionFetcher.fetch(names);
+		DataIndex fresh = DataIndex.buildVersion(names, texts, index);
+		if(fresh.size() == 0)
+			return null;
+		versions.put(version, fresh);
+		System.out.println("Lookups loaded " + version + ": " + fresh.size() + " nodes, "
+				+ fresh.getData().remaining() + " bytes not shared with " + CURRENT + ".");
+		return fresh;
+	}
+
+
+
+	// Check if the given name may be used to load a version of the data.
+	static boolean isVersionName(String version){
+		return VERSION_NAME.matcher(version).matches();
+	}
+
+
+
+	// Keep an uploaded plugin, so that it can be looked up.
+	public void addPlugin(String id, Plugin plugin){
+		plugins.put(id, plugin);
+	}
+
+
+
+	// Returns the plugin uploaded with the given message, or null if there is
+	// none or it is no longer kept.
+	public Plugin getPlugin(String id){
+		return plugins.get(id);
+	}
+
+
+
+	// Build everything that is derived from the data before making it
+	// visible to lookups, so they never see a half-built index.
+	private void setIndex(DataIndex fresh){
+		buildDerived(fresh);
+		index = fresh;
+	}
+
+
+
+	// Build every structure that lookups derive from the data.
+	private static void buildDerived(DataIndex fresh){
+		fresh.getDerived(FuzzyIndex.class, FuzzyIndex::new);
+		fresh.getDerived(PrefixIndex.class, PrefixIndex::new);
+		fresh.getDerived(SwizzleIndex.class, SwizzleIndex::new);
+		fresh.getDerived(PhraseGrammar.class, PhraseGrammar::new);
+		fresh.getDerived(AttributeTable.class, AttributeTable::new);
+		fresh.getDerived(AttributeQuery.class, AttributeQuery::new);
+		fresh.getDerived(ReferenceIndex.class, ReferenceIndex::new);
+		fresh.getDerived(SystemGraph.class, SystemGraph::new);
+		fresh.getDerived(TradeTable.class, TradeTable::new);
+	}
+
+
+
+	// Check if the index holds exactly the given files, in this order.
+	private static boolean hasFiles(DataIndex index, List<String> names){
+		List<DataIndex.Segment> segments = index.getSegments();
+		if(segments.size() != names.size())
+			return false;
+		for(int i = 0; i < names.size(); ++i)
+			if(!segments.get(i).name.equals(names.get(i)))
+				return false;
+		return true;
+	}
+
+
+
+	private static List<String> readFileNames(){
+		List<String> dataFiles = new ArrayList<>();
+		try(BufferedReader br = Files.newBufferedReader(Paths.get("data", "dataFileNames.txt"))){
+			String line = br.readLine();
+
+			while (line != null){
+				if(line.trim().length() > 0)
+					dataFiles.add(line.trim());
+				line = br.readLine();
+			}
+		}
+		catch(IOException e){
+			System.out.println("\nNo datafile found for file names.\nAll lookups will fail.\n");
+			System.out.println(e.toString());
+		}
+		return dataFiles;
+	}
+}
@@ -0,0 +1,181 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// One line of a data file, split into tokens, along with the more-indented
+// lines beneath it. Root nodes are parsed from the text of a DataIndex entry.
+// The tokens are views of that text, so building a tree copies no text.
+public class DataNode {
+
+	private final CharSequence[] tokens;
+	private final List<DataNode> children = new ArrayList<>();
+	// A hash of the tokens of this node and of all of its children, computed
+	// when first asked for. 0 if not yet computed.
+	private long hash = 0;
+
+
+
+	DataNode(CharSequence[] tokens){
+		this.tokens = tokens;
+	}
+
+
+
+	// Make a node with the given children. The child nodes are shared, not
+	// copied, so a changed tree can share every subtree it leaves unchanged.
+	DataNode(CharSequence[] tokens, List<DataNode> children){
+		this.tokens = tokens;
+		this.children.addAll(children);
+	}
+
+
+
+	// Parse the text of one root node (and everything indented beneath it).
+	// Returns null if the text holds no data line.
+	public static DataNode parse(CharSequence text){
+		DataNode root = null;
+		// The most recent node at each indent level.
+		List<DataNode> parents = new ArrayList<>();
+		DataTokenizer tokenizer = new DataTokenizer(text);
+		while(tokenizer.next()){
+			CharSequence[] tokens = new CharSequence[tokenizer.size()];
+			for(int i = 0; i < tokens.length; ++i)
+				tokens[i] = tokenizer.getToken(i);
+			DataNode node = new DataNode(tokens);
+			if(root == null){
+				root = node;
+				parents.add(node);
+				continue;
+			}
+			// Lines indented deeper than one level past their parent still
+			// belong to it, as they do in the game.
+			int indent = Math.max(1, Math.min(tokenizer.getIndent(), parents.size()));
+			parents.get(indent - 1).children.add(node);
+			while(parents.size() > indent)
+				parents.remove(parents.size() - 1);
+			parents.add(node);
+		}
+		return root;
+	}
+
+
+
+	public int size(){
+		return tokens.length;
+	}
+
+
+
+	// Returns the token at the given position, or nullstring if there is none.
+	public String getToken(int i){
+		return i < tokens.length ? tokens[i].toString() : "";
+	}
+
+
+
+	// Check if the token at the given position is the given string.
+	public boolean isToken(int i, String value){
+		return i < tokens.length && value.contentEquals(tokens[i]);
+	}
+
+
+
+	// Returns the token at the given position as a number, or 0 if it is
+	// missing or not a number.
+	public double getValue(int i){
+		double value = i < tokens.length ? DataTokenizer.parseNumber(tokens[i], 0, tokens[i].length()) : Double.NaN;
+		return Double.isNaN(value) ? 0. : value;
+	}
+
+
+
+	public boolean hasValue(int i){
+		return i < tokens.length && !Double.isNaN(DataTokenizer.parseNumber(tokens[i], 0, tokens[i].length()));
+	}
+
+
+
+	public List<String> getTokens(){
+		List<String> list = new ArrayList<>(tokens.length);
+		for(CharSequence token : tokens)
+			list.add(token.toString());
+		return Collections.unmodifiableList(list);
+	}
+
+
+
+	public List<DataNode> getChildren(){
+		return Collections.unmodifiableList(children);
+	}
+
+
+
+	public boolean hasChildren(){
+		return !children.isEmpty();
+	}
+
+
+
+	// Returns a hash of this node and everything beneath it. Two subtrees
+	// with the same tokens in the same order have the same hash, whatever
+	// their quoting, spacing or comments.
+	public long getHash(){
+		if(hash != 0)
+			return hash;
+		long h = 0xcbf29ce484222325L;
+		for(CharSequence token : tokens){
+			for(int i = 0; i < token.length(); ++i)
+				h = (h ^ token.charAt(i)) * 0x100000001b3L;
+			// Separate the tokens, so "a b" and "ab" differ.
+			h = (h ^ 0x1f) * 0x100000001b3L;
+		}
+		for(DataNode child : children)
+			h = (h ^ child.getHash()) * 0x100000001b3L;
+		hash = h == 0 ? 1 : h;
+		return hash;
+	}
+
+
+
+	// Write this node and everything beneath it as data file text, with each
+	// line indented by one more tab than its parent.
+	public String toText(){
+		StringBuilder sb = new StringBuilder();
+		write(sb, 0);
+		return sb.toString();
+	}
+
+
+
+	private void write(StringBuilder sb, int indent){
+		for(int i = 0; i < indent; ++i)
+			sb.append('\t');
+		for(int i = 0; i < tokens.length; ++i)
+			sb.append(i > 0 ? " " : "").append(quote(tokens[i].toString()));
+		sb.append('\n');
+		for(DataNode child : children)
+			child.write(sb, indent + 1);
+	}
+
+
+
+	// Quote a token if it needs it to be read back as one token.
+	static String quote(String token){
+		if(!token.isEmpty() && token.indexOf(' ') < 0 && token.indexOf('\t') < 0
+				&& token.indexOf('#') < 0 && token.charAt(0) != '"' && token.charAt(0) != '`')
+			return token;
+		return token.indexOf('"') < 0 ? "\"" + token + "\"" : "`" + token + "`";
+	}
+
+
+
+	// Returns the first child whose first token is the given key, or null.
+	public DataNode getChild(String key){
+		for(DataNode child : children)
+			if(child.isToken(0, key))
+				return child;
+		return null;
+	}
+}
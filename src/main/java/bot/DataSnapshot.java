@@ -0,0 +1,162 @@
+package bot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads and writes a binary snapshot of the loaded data and its index, so a
+// restart can answer lookups without waiting on the network. The data bytes
+// of a loaded snapshot are used in place, straight from the mapped file.
+//
+// Layout (big-endian):
+//   int    MAGIC
+//   int    VERSION
+//   long   time the snapshot was written (ms since epoch)
+//   int    byte length of the data, followed by the UTF-8 data
+//   int    file count, followed by one record per data file:
+//          string name, string hash, int start, int end, int first node, int node count
+//   int    node count, followed by one record per node:
+//          int start, int end, string type, string key
+//          (start and end are byte offsets into the data)
+// Strings are written as an int byte length followed by UTF-8 bytes.
+public class DataSnapshot {
+
+	private static final int MAGIC = 0x45534253; // "ESBS"
+	// Bump this whenever the layout or the meaning of the index changes, so
+	// that old snapshots are ignored instead of misread.
+	public static final int VERSION = 3;
+
+
+
+	/**
+	 * Load a snapshot through a memory-mapped view of the file.
+	 * @param  Path path        The snapshot file.
+	 * @return      The restored index, or null if there is no usable snapshot.
+	 */
+	public static DataIndex read(Path path){
+		if(!Files.isRegularFile(path))
+			return null;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+			buffer.getLong();
+
+			int length = buffer.getInt();
+			ByteBuffer data = buffer.slice();
+			data.limit(length);
+			buffer.position(buffer.position() + length);
+			int files = buffer.getInt();
+			List<DataIndex.Segment> segments = new ArrayList<>(files);
+			for(int i = 0; i < files; ++i){
+				String name = readString(buffer);
+				String hash = readString(buffer);
+				segments.add(new DataIndex.Segment(name, hash, buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+			}
+			int count = buffer.getInt();
+			List<DataIndex.Entry> nodes = new ArrayList<>(count);
+			for(int i = 0; i < count; ++i){
+				int start = buffer.getInt();
+				int end = buffer.getInt();
+				String type = readString(buffer);
+				String key = readString(buffer);
+				if(end > length || start >= end)
+					return null;
+				nodes.add(new DataIndex.Entry(i, type, key, start, end));
+			}
+			return new DataIndex(data, segments, nodes);
+		}
+		catch(IOException | BufferUnderflowException | IllegalArgumentException e){
+			System.out.println("Ignoring unreadable snapshot " + path + ": " + e.toString());
+			return null;
+		}
+	}
+
+
+
+	/**
+	 * Write the index to the given path. The snapshot is written to a
+	 * temporary file first and then moved into place, so a crash while
+	 * writing never leaves a truncated snapshot behind.
+	 * @param  DataIndex index         The index to save.
+	 * @param  Path      path          The snapshot file.
+	 * @return           true / false, depending on if the snapshot was written.
+	 */
+	public static boolean write(DataIndex index, Path path){
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try{
+			if(path.getParent() != null)
+				Files.createDirectories(path.getParent());
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))){
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(System.currentTimeMillis());
+				ByteBuffer data = index.getData();
+				out.writeInt(data.remaining());
+				byte[] chunk = new byte[1 << 16];
+				while(data.hasRemaining()){
+					int count = Math.min(chunk.length, data.remaining());
+					data.get(chunk, 0, count);
+					out.write(chunk, 0, count);
+				}
+				out.writeInt(index.getSegments().size());
+				for(DataIndex.Segment segment : index.getSegments()){
+					writeString(out, segment.name);
+					writeString(out, segment.hash);
+					out.writeInt(segment.start);
+					out.writeInt(segment.end);
+					out.writeInt(segment.firstEntry);
+					out.writeInt(segment.entryCount);
+				}
+				out.writeInt(index.size());
+				for(DataIndex.Entry entry : index.getEntries()){
+					out.writeInt(entry.start);
+					out.writeInt(entry.end);
+					writeString(out, entry.type);
+					writeString(out, entry.key);
+				}
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+		catch(IOException e){
+			System.out.println("Could not write snapshot " + path + ": " + e.toString());
+			try{
+				Files.deleteIfExists(temp);
+			}
+			catch(IOException x){
+				// Nothing more to clean up.
+			}
+			return false;
+		}
+	}
+
+
+
+	private static String readString(ByteBuffer buffer){
+		int length = buffer.getInt();
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
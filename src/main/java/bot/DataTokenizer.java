@@ -0,0 +1,272 @@
+package bot;
+
+import java.util.Arrays;
+
+// Reads data text the way the game does, one line at a time: the number of
+// tabs the line is indented by, then its tokens. Tokens are separated by
+// whitespace, may be wrapped in "quotes" or `backticks`, and a '#' outside of
+// them starts a comment. Lines without any tokens are skipped.
+// Only the bounds of each token are recorded, so reading through text copies
+// nothing; tokens are handed out as views of the text, and only become new
+// Strings when asked to.
+public class DataTokenizer {
+
+	// Powers of ten that are exact as doubles.
+	private static final double[] POWERS = new double[23];
+	static {
+		POWERS[0] = 1.;
+		for(int i = 1; i < POWERS.length; ++i)
+			POWERS[i] = POWERS[i - 1] * 10.;
+	}
+
+	private final CharSequence text;
+	private final int end;
+	private int position;
+
+	// The current line.
+	private int indent = 0;
+	private int size = 0;
+	private int[] starts = new int[8];
+	private int[] ends = new int[8];
+
+
+
+	public DataTokenizer(CharSequence text){
+		this(text, 0, text.length());
+	}
+
+
+
+	// Read only the text in [from, to).
+	public DataTokenizer(CharSequence text, int from, int to){
+		this.text = text;
+		position = from;
+		end = to;
+	}
+
+
+
+	// Move on to the next line that has tokens. Returns false once the end of
+	// the text is reached.
+	public boolean next(){
+		while(position < end){
+			int lineEnd = position;
+			while(lineEnd < end && text.charAt(lineEnd) != '\n')
+				++lineEnd;
+			read(position, lineEnd);
+			position = lineEnd + 1;
+			if(size > 0)
+				return true;
+		}
+		size = 0;
+		return false;
+	}
+
+
+
+	public int getIndent(){
+		return indent;
+	}
+
+
+
+	// Returns the number of tokens on the current line.
+	public int size(){
+		return size;
+	}
+
+
+
+	// Returns a view of the given token, or nullstring if there is none.
+	public CharSequence getToken(int i){
+		return i < size ? new View(text, starts[i], ends[i]) : "";
+	}
+
+
+
+	// Returns a copy of the given token, or nullstring if there is none.
+	public String getString(int i){
+		return i < size ? text.subSequence(starts[i], ends[i]).toString() : "";
+	}
+
+
+
+	// Check if the given token is the given string, without copying it.
+	public boolean tokenEquals(int i, String value){
+		if(i >= size || ends[i] - starts[i] != value.length())
+			return false;
+		for(int c = 0; c < value.length(); ++c)
+			if(text.charAt(starts[i] + c) != value.charAt(c))
+				return false;
+		return true;
+	}
+
+
+
+	// Returns the given token as a number, or NaN if it is not one.
+	public double getValue(int i){
+		return i < size ? parseNumber(text, starts[i], ends[i]) : Double.NaN;
+	}
+
+
+
+	public boolean hasValue(int i){
+		return !Double.isNaN(getValue(i));
+	}
+
+
+
+	// Split the text in [i, to) into tokens.
+	private void read(int i, int to){
+		indent = 0;
+		size = 0;
+		while(i < to && text.charAt(i) == '\t'){
+			++indent;
+			++i;
+		}
+		while(i < to){
+			char c = text.charAt(i);
+			if(isSpace(c)){
+				++i;
+				continue;
+			}
+			if(c == '#')
+				break;
+			int start;
+			int stop;
+			if(c == '"' || c == '`'){
+				start = i + 1;
+				stop = start;
+				while(stop < to && text.charAt(stop) != c)
+					++stop;
+				i = stop + 1;
+			}
+			else{
+				start = i;
+				stop = i;
+				while(stop < to && !isSpace(text.charAt(stop)))
+					++stop;
+				i = stop;
+			}
+			add(start, stop);
+		}
+	}
+
+
+
+	private void add(int start, int stop){
+		if(size == starts.length){
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		starts[size] = start;
+		ends[size] = stop;
+		++size;
+	}
+
+
+
+	private static boolean isSpace(char c){
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+
+
+	/**
+	 * Read a number, e.g. "12", "-.5" or "1e3", without making a String of it.
+	 * @param  CharSequence text          The text holding the number.
+	 * @param  int          from          Where the number starts.
+	 * @param  int          to            Where the number ends.
+	 * @return              The number, or NaN if the text is not a number.
+	 */
+	public static double parseNumber(CharSequence text, int from, int to){
+		int i = from;
+		boolean negative = false;
+		if(i < to && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+			negative = text.charAt(i++) == '-';
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean exact = true;
+		boolean fraction = false;
+		for( ; i < to; ++i){
+			char c = text.charAt(i);
+			if(c == '.' && !fraction)
+				fraction = true;
+			else if(c >= '0' && c <= '9'){
+				if(mantissa < 100000000000000000L)
+					mantissa = mantissa * 10 + (c - '0');
+				else{
+					exact = false;
+					if(!fraction)
+						++scale;
+				}
+				if(fraction)
+					--scale;
+				++digits;
+			}
+			else
+				break;
+		}
+		if(digits == 0)
+			return Double.NaN;
+		if(i < to && (text.charAt(i) == 'e' || text.charAt(i) == 'E')){
+			++i;
+			boolean negativeExponent = false;
+			if(i < to && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+				negativeExponent = text.charAt(i++) == '-';
+			int exponent = 0;
+			int exponentDigits = 0;
+			for( ; i < to && text.charAt(i) >= '0' && text.charAt(i) <= '9'; ++i, ++exponentDigits)
+				exponent = Math.min(exponent * 10 + (text.charAt(i) - '0'), 100000);
+			if(exponentDigits == 0)
+				return Double.NaN;
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		if(i != to)
+			return Double.NaN;
+
+		// Both the digits and the power of ten are exact, so a single
+		// multiplication or division rounds correctly. Anything else is left
+		// to the library.
+		if(!exact || mantissa >= (1L << 53) || scale < -22 || scale > 22)
+			return Double.parseDouble(text.subSequence(from, to).toString());
+		double value = scale < 0 ? mantissa / POWERS[-scale] : mantissa * POWERS[scale];
+		return negative ? -value : value;
+	}
+
+
+
+	// A part of some text, shared rather than copied.
+	private static final class View implements CharSequence {
+		private final CharSequence text;
+		private final int start;
+		private final int end;
+
+		View(CharSequence text, int start, int end){
+			this.text = text;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length(){
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index){
+			return text.charAt(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to){
+			return new View(text, start + from, start + to);
+		}
+
+		@Override
+		public String toString(){
+			return text.subSequence(start, end).toString();
+		}
+	}
+}
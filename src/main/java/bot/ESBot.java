@@ -22,9 +22,12 @@ public class ESBot {
 	public static final String HOST_PUBLIC_URL = "https://github.com/MCOfficer/EndlessSky-Discord-Bot";
 	public static final String CONTENT_URL = "https://github.com/endless-sky/endless-sky/raw/master";
 	public static final String DATA_URL = "https://raw.githubusercontent.com/endless-sky/endless-sky/master/data/";
+	public static final String DATA_API_URL = "https://api.github.com/repos/endless-sky/endless-sky/contents/data?ref=master";
 
 
 	public Properties keys;
+	// Kept across updates, so that only changed data files are reloaded.
+	private final DataLoader lookupData = new DataLoader(DATA_URL, DATA_API_URL);
 
 
 	public ESBot(String TOKEN){
@@ -47,9 +50,11 @@ public class ESBot {
 
 	/**
 	 * Removes any existing event listeners, then re-loads everything.
+	 * Only data files that changed upstream are downloaded again.
 	 * Does not refresh the known filename lists.
 	 */
 	public synchronized void update(){
+		lookupData.update();
 		jda.getRegisteredListeners().forEach(jda::removeEventListener);
 		CommandHandler cmdHandler = new JDA3Handler(jda);
 		cmdHandler.registerCommand(new LookupCommands(this));
@@ -63,6 +68,12 @@ public class ESBot {
 	}
 
 
+	public DataLoader getLookupData(){
+		return lookupData;
+	}
+
+
+
 	public String getKey(String id){
 		return keys.getProperty(id, "");
 	}
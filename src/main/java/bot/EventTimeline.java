@@ -0,0 +1,176 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The universe as it is after an event has happened. An event redefines some
+// systems, planets, governments and the like, and links or unlinks systems;
+// applying it merges each change into the node it changes, the way the game
+// does, and lays the changed nodes over the data. Every node that the event
+// does not change is shared with the data rather than copied, and within a
+// changed node, so is every line that the event does not touch. The state
+// after each of the most recently asked for events is kept until the data is
+// reloaded.
+public class EventTimeline {
+
+	private static final int MAX_EVENTS = 8;
+	// The types of node that an event may define anew.
+	private static final String[] DEFINABLE = {"system", "planet", "government", "fleet", "galaxy",
+			"outfitter", "shipyard", "news", "wormhole", "minable", "hazard"};
+
+	private final DataIndex index;
+	// By event name, least recently used first.
+	private final Map<String, DataIndex> after = LruMap.synchronizedOf(MAX_EVENTS);
+
+
+
+	public EventTimeline(DataIndex index){
+		this.index = index;
+	}
+
+
+
+	/**
+	 * Get the data as it is after the given event.
+	 * @param  String name          The name of the event, in any case.
+	 * @return        The data after the event, or null if there is no event
+	 *                with that name.
+	 */
+	public DataIndex getAfter(String name){
+		DataIndex.Entry event = index.findNamed("event", name);
+		if(event == null)
+			event = index.getDerived(FuzzyIndex.class, FuzzyIndex::new).find(name, "event");
+		if(event == null || !event.type.equals("event"))
+			return null;
+
+		String key = event.getName();
+		DataIndex cached = after.get(key);
+		if(cached != null)
+			return cached;
+		DataNode node = DataNode.parse(index.getText(event));
+		if(node == null)
+			return null;
+		DataIndex result = apply(index, key, node);
+		after.put(key, result);
+		return result;
+	}
+
+
+
+	/**
+	 * Apply an event to the data.
+	 * @param  DataIndex base          The data before the event.
+	 * @param  String    name          The name of the event.
+	 * @param  DataNode  event         The event node.
+	 * @return           The data after the event.
+	 */
+	static DataIndex apply(DataIndex base, String name, DataNode event){
+		// The changed nodes, by their defining line.
+		LinkedHashMap<String, DataNode> changed = new LinkedHashMap<>();
+		for(DataNode change : event.getChildren()){
+			String key = change.getToken(0);
+			if((key.equals("link") || key.equals("unlink")) && change.size() >= 3){
+				link(base, changed, change.getToken(1), change.getToken(2), key.equals("link"));
+				link(base, changed, change.getToken(2), change.getToken(1), key.equals("link"));
+				continue;
+			}
+			if(change.size() < 2)
+				continue;
+			DataIndex.Entry entry = base.findNamed(key, change.getToken(1));
+			if(entry == null && !Arrays.asList(DEFINABLE).contains(key))
+				continue;
+			String line = entry != null ? entry.getLine() : key + " " + DataNode.quote(change.getToken(1));
+			DataNode current = get(base, changed, line);
+			changed.put(line, current == null ? change : merge(current, change));
+		}
+
+		// Each node keeps its defining line exactly as the data has it, so
+		// that it shadows the node it changes.
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<String, DataNode> node : changed.entrySet()){
+			String written = node.getValue().toText();
+			text.append(node.getKey()).append(written, written.indexOf('\n'), written.length());
+		}
+		return DataIndex.buildOverlay(Collections.singletonList("event " + name),
+				Collections.singletonList(text.toString()), base);
+	}
+
+
+
+	// Merge an event's redefinition of a node into the node. A line starting
+	// with "add" is added; a line starting with "remove" removes the lines
+	// that begin with the rest of its tokens; any other line replaces all the
+	// lines of the node that have its key (the first such line does, and
+	// the rest are added alongside it).
+	private static DataNode merge(DataNode node, DataNode change){
+		List<DataNode> children = new ArrayList<>(node.getChildren());
+		HashSet<String> replaced = new HashSet<>();
+		for(DataNode line : change.getChildren()){
+			if(line.size() > 1 && (line.isToken(0, "add") || line.isToken(0, "remove"))){
+				DataNode rest = new DataNode(tokens(line, 1), line.getChildren());
+				if(line.isToken(0, "add"))
+					children.add(rest);
+				else
+					children.removeIf(child -> startsWith(child, rest));
+				continue;
+			}
+			String key = line.getToken(0);
+			if(replaced.add(key))
+				children.removeIf(child -> child.isToken(0, key));
+			children.add(line);
+		}
+		return new DataNode(tokens(node, 0), children);
+	}
+
+
+
+	// Add or remove the link from one system to another.
+	private static void link(DataIndex base, Map<String, DataNode> changed, String from, String to, boolean add){
+		DataIndex.Entry entry = base.findNamed("system", from);
+		String line = entry != null ? entry.getLine() : "system " + DataNode.quote(from);
+		DataNode system = get(base, changed, line);
+		if(system == null)
+			return;
+		List<DataNode> children = new ArrayList<>(system.getChildren());
+		boolean linked = children.removeIf(child -> child.isToken(0, "link") && child.isToken(1, to));
+		if(!add && !linked)
+			return;
+		if(add)
+			children.add(new DataNode(new CharSequence[]{"link", to}));
+		changed.put(line, new DataNode(tokens(system, 0), children));
+	}
+
+
+
+	// Returns the node as changed so far, or as the data defines it, or null.
+	private static DataNode get(DataIndex base, Map<String, DataNode> changed, String line){
+		DataNode node = changed.get(line);
+		if(node != null)
+			return node;
+		DataIndex.Entry entry = base.find(line);
+		return entry == null ? null : DataNode.parse(base.getText(entry));
+	}
+
+
+
+	private static boolean startsWith(DataNode node, DataNode prefix){
+		if(node.size() < prefix.size())
+			return false;
+		for(int i = 0; i < prefix.size(); ++i)
+			if(!node.isToken(i, prefix.getToken(i)))
+				return false;
+		return true;
+	}
+
+
+
+	private static CharSequence[] tokens(DataNode node, int from){
+		List<String> list = node.getTokens();
+		return list.subList(from, list.size()).toArray(new CharSequence[list.size() - from]);
+	}
+}
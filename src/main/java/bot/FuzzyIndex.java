@@ -0,0 +1,190 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A typo-tolerant index over the names of every node that can be looked up.
+// Names are split into trigrams ("fal", "alc", "lco", ...); a misspelled
+// request still shares most of its trigrams with the intended name, so the
+// candidates can be found from a few small posting lists and then ranked by
+// edit distance, without comparing the request against every name.
+public class FuzzyIndex {
+
+	// Candidates sharing fewer trigrams than this fraction of the request's
+	// trigrams are not considered.
+	private static final double MIN_OVERLAP = 0.3;
+	// At most this many of the best trigram matches are ranked by edit distance.
+	private static final int MAX_RANKED = 64;
+
+	// Every distinct lowercase name, and the nodes that carry it.
+	private final String[] names;
+	private final DataIndex.Entry[][] nodes;
+	private final int[] trigramCounts;
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	// Trigram -> ids of the names that contain it.
+	private final HashMap<Long, int[]> postings = new HashMap<>();
+	private final List<String> typeOrder;
+
+
+
+	public FuzzyIndex(DataIndex index){
+		typeOrder = Arrays.asList(NodeLookup.dataTypes);
+		LinkedHashMap<String, List<DataIndex.Entry>> byName = new LinkedHashMap<>();
+		for(String type : NodeLookup.dataTypes)
+			for(DataIndex.Entry entry : index.getEntries(type)){
+				String name = entry.getName().toLowerCase();
+				if(name.isEmpty())
+					continue;
+				List<DataIndex.Entry> list = byName.get(name);
+				if(list == null){
+					list = new ArrayList<>(1);
+					byName.put(name, list);
+				}
+				list.add(entry);
+			}
+
+		names = new String[byName.size()];
+		nodes = new DataIndex.Entry[byName.size()][];
+		trigramCounts = new int[byName.size()];
+		HashMap<Long, List<Integer>> building = new HashMap<>();
+		int id = 0;
+		for(Map.Entry<String, List<DataIndex.Entry>> e : byName.entrySet()){
+			names[id] = e.getKey();
+			ids.put(e.getKey(), id);
+			nodes[id] = e.getValue().toArray(new DataIndex.Entry[e.getValue().size()]);
+			long[] grams = trigrams(e.getKey());
+			trigramCounts[id] = grams.length;
+			for(long gram : grams){
+				List<Integer> posting = building.get(gram);
+				if(posting == null){
+					posting = new ArrayList<>();
+					building.put(gram, posting);
+				}
+				// Names with a repeated trigram are listed only once.
+				if(posting.isEmpty() || posting.get(posting.size() - 1) != id)
+					posting.add(id);
+			}
+			++id;
+		}
+		for(Map.Entry<Long, List<Integer>> e : building.entrySet()){
+			List<Integer> posting = e.getValue();
+			int[] array = new int[posting.size()];
+			for(int i = 0; i < array.length; ++i)
+				array[i] = posting.get(i);
+			postings.put(e.getKey(), array);
+		}
+	}
+
+
+
+	// Find the node whose name matches the request when case and quotes are
+	// ignored. Returns null if there is no such node.
+	public DataIndex.Entry find(String request, String type){
+		Integer id = ids.get(request.replace("\"", "").replace("`", "").trim().toLowerCase());
+		return id == null ? null : pick(id, type);
+	}
+
+
+
+	/**
+	 * Find the nodes whose names are closest to the given request.
+	 * @param  String request       The name that could not be found.
+	 * @param  String type          Only nodes of this type are returned, unless nullstring.
+	 * @param  int    limit         The most candidates to return.
+	 * @return        The candidates, best match first.
+	 */
+	public List<DataIndex.Entry> search(String request, String type, int limit){
+		String query = request.replace("\"", "").replace("`", "").trim().toLowerCase();
+		List<DataIndex.Entry> results = new ArrayList<>();
+		if(query.isEmpty() || names.length == 0)
+			return results;
+
+		// Count the trigrams each name shares with the query.
+		long[] grams = trigrams(query);
+		HashMap<Integer, Integer> shared = new HashMap<>();
+		for(long gram : grams){
+			int[] posting = postings.get(gram);
+			if(posting != null)
+				for(int id : posting)
+					shared.merge(id, 1, Integer::sum);
+		}
+
+		// Keep the names with the best trigram similarity.
+		final int minShared = Math.max(1, (int)Math.ceil(grams.length * MIN_OVERLAP));
+		List<int[]> candidates = new ArrayList<>();
+		for(Map.Entry<Integer, Integer> e : shared.entrySet())
+			if(e.getValue() >= minShared){
+				int id = e.getKey();
+				// Dice coefficient, scaled to an int for sorting.
+				int score = 2000 * e.getValue() / (grams.length + trigramCounts[id]);
+				candidates.add(new int[]{id, score});
+			}
+		candidates.sort((a, b) -> b[1] - a[1]);
+		if(candidates.size() > MAX_RANKED)
+			candidates = candidates.subList(0, MAX_RANKED);
+
+		// Rank what is left by edit distance, then by type priority and name.
+		for(int[] c : candidates)
+			c[1] = distance(query, names[c[0]]);
+		candidates.sort((a, b) -> a[1] != b[1] ? a[1] - b[1] : names[a[0]].compareTo(names[b[0]]));
+		final int maxDistance = Math.max(2, query.length() / 3);
+		for(int[] c : candidates){
+			if(c[1] > maxDistance || results.size() >= limit)
+				break;
+			DataIndex.Entry best = pick(c[0], type);
+			if(best != null)
+				results.add(best);
+		}
+		return results;
+	}
+
+
+
+	// Of the nodes with the given name, return the one of the given type (or
+	// of the highest-priority type, if none is given).
+	private DataIndex.Entry pick(int id, String type){
+		DataIndex.Entry best = null;
+		for(DataIndex.Entry entry : nodes[id])
+			if((type.isEmpty() || entry.type.equals(type))
+					&& (best == null || typeOrder.indexOf(entry.type) < typeOrder.indexOf(best.type)))
+				best = entry;
+		return best;
+	}
+
+
+
+	// Returns the trigrams of the padded string, each packed into a long.
+	private static long[] trigrams(String str){
+		String padded = "  " + str + " ";
+		long[] grams = new long[padded.length() - 2];
+		for(int i = 0; i < grams.length; ++i)
+			grams[i] = ((long)padded.charAt(i) << 32) | ((long)padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+		return grams;
+	}
+
+
+
+	// Levenshtein distance between the two strings.
+	private static int distance(String a, String b){
+		int[] prev = new int[b.length() + 1];
+		int[] cur = new int[b.length() + 1];
+		for(int j = 0; j <= b.length(); ++j)
+			prev[j] = j;
+		for(int i = 1; i <= a.length(); ++i){
+			cur[0] = i;
+			char ca = a.charAt(i - 1);
+			for(int j = 1; j <= b.length(); ++j){
+				int cost = ca == b.charAt(j - 1) ? 0 : 1;
+				cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+			}
+			int[] swap = prev;
+			prev = cur;
+			cur = swap;
+		}
+		return prev[b.length()];
+	}
+}
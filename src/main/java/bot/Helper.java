@@ -66,22 +66,22 @@ public class Helper {
 
 
 	// Returns the bare image name without quotes, or a nullstring if no image.
+	// A thumbnail is preferred over a sprite, then a landscape, then a scene.
 	public static String GetImageName(String text){
-		int start = 0;
-		if(text.contains("\tthumbnail"))
-			start = text.indexOf("thumbnail") + 10;
-		else if(text.contains("\tsprite"))
-			start = text.indexOf("sprite") + 7;
-		else if(text.contains("\tlandscape"))
-			start = text.indexOf("landscape") + 10;
-		else if(text.contains("\tscene"))
-			start = text.indexOf("scene") + 6;
-		else
-			return "";
-
-		int end = text.indexOf('\n', start);
-
-		return text.substring(start, end).replace("\"", "");
+		final String[] keys = {"thumbnail", "sprite", "landscape", "scene"};
+		String[] found = new String[keys.length];
+		DataTokenizer line = new DataTokenizer(text);
+		while(line.next()){
+			if(line.getIndent() == 0 || line.size() < 2)
+				continue;
+			for(int i = 0; i < keys.length; ++i)
+				if(found[i] == null && line.tokenEquals(0, keys[i]))
+					found[i] = line.getString(1);
+		}
+		for(String name : found)
+			if(name != null)
+				return name;
+		return "";
 	}
 
 
@@ -104,10 +104,10 @@ public class Helper {
 	// Returns the bit that comes before the searched request string.
 	// e.g. "mission", "ship", "fleet", "outfit"
 	public static String GetDataType(String output){
-		if(output.length() < 1 || output.indexOf(" ") < 1)
+		DataTokenizer line = new DataTokenizer(output);
+		if(!line.next() || line.size() < 2)
 			return "";
-		int start = (output.indexOf('\n') == 0 || output.indexOf('\t') == 0) ? 1 : 0;
-		return output.substring(start, output.indexOf(" "));
+		return line.getString(0);
 	}
 
 
@@ -133,59 +133,42 @@ public class Helper {
 
 
 
-	// Return the number of tabs that preceed the specified indented word in the
-	// datastring. Phrases are generally 0 or 1 level, while word demarcations
-	// are generally 1 or 2 indent levels.
-	public static int GetIndentLevel(String data, String word){
-		int level = -1;
-		int start = data.indexOf(word);
-		if(start < 0)
-			return level;
+	// Returns the input without any quotes or backticks, and trimmed.
+	public static String Unquote(String input){
+		return input.replace("\"", "").replace("`", "").trim();
+	}
+
 
-		int lineStart = data.lastIndexOf("\n", start);
-		// If the data string starts with this word, return 0, even if there is no
-		// newline preceeding it.
-		if(lineStart < 0 || start == 0)
-			return 0;
 
-		String line = data.substring(lineStart, start + word.length() + 1);
-		return CountOf(line,'\t');
+	// Split one line of a data file into its tokens, the way the game does.
+	// See DataTokenizer.
+	public static List<String> GetTokens(String line){
+		List<String> tokens = new ArrayList<>();
+		DataTokenizer tokenizer = new DataTokenizer(line);
+		if(tokenizer.next())
+			for(int i = 0; i < tokenizer.size(); ++i)
+				tokens.add(tokenizer.getString(i));
+		return tokens;
 	}
 
 
 
-	// Call this for each word in a phrase, giving it the bits
-	// between 'word', 'phrase', or the next data entry.
-	public static String[] MakeChoices(String wordlist){
-		final int MAXPOS = 10000000;
-		int start = wordlist.indexOf("\tword\n");
-		ArrayList<String> choices = new ArrayList<String>();
-		boolean reachedEnd = false;
-		while(!reachedEnd){
-			int startQuote = wordlist.indexOf("\t\"", start);
-			int startTick = wordlist.indexOf("\t`", start);
-			int startWord = Integer.min(startQuote > -1 ? startQuote : MAXPOS, startTick > -1 ? startTick : MAXPOS);
-			if(startWord == MAXPOS){
-				reachedEnd = true;
-				break;
-			}
-			boolean findTick = startQuote == -1 || (startTick > -1 && startTick < startQuote);
-			int endWord = wordlist.indexOf(findTick ? "`\n" : "\"\n", findTick ? ++startTick : ++startQuote);
-			choices.add(wordlist.substring(findTick ? startTick : startQuote, ++endWord));
-			start = endWord;
-		}
-		if(!choices.isEmpty())
-			return choices.toArray(new String[choices.size()]);
-		else
-			return new String[0];
+	// Returns the description of the given node, one paragraph per
+	// 'description' line, or nullstring if it has none.
+	public static String GetDescription(String text){
+		StringBuilder sb = new StringBuilder();
+		DataTokenizer line = new DataTokenizer(text);
+		while(line.next())
+			if(line.getIndent() == 1 && line.size() > 1 && line.tokenEquals(0, "description"))
+				sb.append(sb.length() > 0 ? "\n" : "").append(line.getToken(1));
+		return sb.toString();
 	}
 
 
 
 	// Check the string for image indicators. Returns false if there is no image.
 	public static boolean HasImageToPrint(String input){
-		return input.contains("\tsprite ") || input.contains("\tthumbnail ")
-				|| input.contains("\tlandscape ") || input.contains("\tscene ");
+		return GetImageName(input).length() > 0;
 	}
 
 
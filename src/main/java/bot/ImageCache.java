@@ -0,0 +1,301 @@
+package bot;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+// Keeps a local copy of every image the bot has shown, already scaled down
+// to the size it is shown at, so that it can be uploaded as an attachment
+// instead of having Discord fetch the full size image from GitHub each time.
+// The images are stored under the hash of their contents, and an index maps
+// each URL to the hash of its scaled image. Downloading and scaling happen on
+// a small pool of worker threads, and requests for an image that is already
+// being fetched wait for that fetch rather than starting another.
+public class ImageCache {
+
+	// The longest side of a scaled image, in pixels.
+	private static final int MAX_SIZE = 720;
+	private static final int MAX_DOWNLOAD = 16 << 20;
+	private static final long TTL_MS = TimeUnit.DAYS.toMillis(7);
+	private static final int TIMEOUT_MS = 10000;
+	private static final int WORKERS = 2;
+	private static final int QUEUE = 32;
+
+	private final Path directory;
+	private final Path indexFile;
+	// By URL: "<time fetched> <hash>".
+	private final Properties entries = new Properties();
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> fetching = new ConcurrentHashMap<>();
+	private final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(QUEUE), r -> {
+				Thread t = new Thread(r, "image-fetch");
+				t.setDaemon(true);
+				return t;
+			});
+
+
+
+	public ImageCache(Path directory){
+		this.directory = directory;
+		indexFile = directory.resolve("index.properties");
+		if(Files.exists(indexFile))
+			try(Reader r = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)){
+				entries.load(r);
+			}
+			catch(IOException e){
+				System.out.println(e.toString());
+			}
+		removeUnused();
+	}
+
+
+
+	/**
+	 * Get the scaled image at the given URL, from the cache if it is there.
+	 * @param  String url           The full URL of the image.
+	 * @return        The scaled image as PNG or JPEG bytes (whichever the
+	 *                original was), or null if it could not be fetched. The
+	 *                future completes on a worker thread, or at once if the
+	 *                image was already cached.
+	 */
+	public CompletableFuture<byte[]> get(String url){
+		byte[] cached = read(url);
+		if(cached != null)
+			return CompletableFuture.completedFuture(cached);
+
+		CompletableFuture<byte[]> created = new CompletableFuture<>();
+		CompletableFuture<byte[]> existing = fetching.putIfAbsent(url, created);
+		if(existing != null)
+			return existing;
+		try{
+			workers.execute(() -> {
+				byte[] image = null;
+				try{
+					image = fetch(url);
+				}
+				catch(Exception e){
+					System.out.println(e.toString());
+				}
+				fetching.remove(url);
+				created.complete(image);
+			});
+		}
+		catch(RejectedExecutionException e){
+			// Too many images are waiting already.
+			fetching.remove(url);
+			created.complete(null);
+		}
+		return created;
+	}
+
+
+
+	// Returns a file name for the image at the given URL, e.g. "falcon.png"
+	// for ".../images/ship/falcon%402x.png?raw=true".
+	public static String getFileName(String url){
+		String name = url.replaceFirst("[?#].*$", "");
+		name = name.substring(name.lastIndexOf('/') + 1);
+		try{
+			name = URLDecoder.decode(name, "UTF-8");
+		}
+		catch(UnsupportedEncodingException | IllegalArgumentException e){
+		}
+		name = name.replace("@2x", "").replaceAll("[^A-Za-z0-9._+~=-]", "_");
+		return name.isEmpty() ? "image.png" : name;
+	}
+
+
+
+	// Returns the cached image for the URL, or null if it is not cached or
+	// is too old.
+	private byte[] read(String url){
+		String cached;
+		synchronized(entries){
+			cached = entries.getProperty(url);
+		}
+		if(cached == null)
+			return null;
+		int split = cached.indexOf(' ');
+		if(split < 0 || System.currentTimeMillis() - Long.parseLong(cached.substring(0, split)) > TTL_MS)
+			return null;
+		try{
+			return Files.readAllBytes(directory.resolve(cached.substring(split + 1)));
+		}
+		catch(IOException e){
+			return null;
+		}
+	}
+
+
+
+	// Download, scale and store the image. Returns null if it is not an image.
+	private byte[] fetch(String url) throws IOException {
+		byte[] original = download(url);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(original));
+		if(image == null)
+			return null;
+
+		String format = getFileName(url).toLowerCase().endsWith(".jpg") ? "jpg" : "png";
+		// High-DPI images are drawn at half their size in the game.
+		int scale = url.contains("%402x") || url.contains("@2x") ? 2 : 1;
+		int width = Math.max(1, image.getWidth() / scale);
+		int height = Math.max(1, image.getHeight() / scale);
+		if(Math.max(width, height) > MAX_SIZE){
+			double factor = (double)MAX_SIZE / Math.max(width, height);
+			width = Math.max(1, (int)Math.round(width * factor));
+			height = Math.max(1, (int)Math.round(height * factor));
+		}
+		// Images that are already small enough are kept as they are.
+		byte[] bytes = original;
+		if(width != image.getWidth() || height != image.getHeight()){
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(scale(image, width, height, format.equals("png")), format, out);
+			bytes = out.toByteArray();
+		}
+
+		String hash = hash(bytes) + "." + format;
+		Path path = directory.resolve(hash);
+		Files.createDirectories(directory);
+		if(!Files.exists(path)){
+			Path temp = Files.createTempFile(directory, "image", ".tmp");
+			Files.write(temp, bytes);
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		synchronized(entries){
+			entries.setProperty(url, System.currentTimeMillis() + " " + hash);
+			save();
+		}
+		return bytes;
+	}
+
+
+
+	private static byte[] download(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
+		try{
+			conn.setConnectTimeout(TIMEOUT_MS);
+			conn.setReadTimeout(TIMEOUT_MS);
+			if(conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+				throw new IOException("HTTP " + conn.getResponseCode() + " for " + url);
+			try(InputStream in = conn.getInputStream()){
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1 << 16];
+				for(int read; (read = in.read(buffer)) > 0; ){
+					out.write(buffer, 0, read);
+					if(out.size() > MAX_DOWNLOAD)
+						throw new IOException("Image too large: " + url);
+				}
+				return out.toByteArray();
+			}
+		}
+		finally{
+			conn.disconnect();
+		}
+	}
+
+
+
+	// Scale the image down by halves, then to the exact size, which looks
+	// much better than a single bilinear step for large reductions.
+	private static BufferedImage scale(BufferedImage image, int width, int height, boolean alpha){
+		BufferedImage current = image;
+		int w = image.getWidth();
+		int h = image.getHeight();
+		do{
+			w = Math.max(width, w / 2);
+			h = Math.max(height, h / 2);
+			if(w < width * 2 && h < height * 2){
+				w = width;
+				h = height;
+			}
+			BufferedImage next = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(current, 0, 0, w, h, null);
+			g.dispose();
+			current = next;
+		}while(w != width || h != height);
+		return current;
+	}
+
+
+
+	private static String hash(byte[] bytes){
+		try{
+			StringBuilder sb = new StringBuilder();
+			for(byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		}
+		catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+
+	// Delete the stored images that no URL refers to any more, e.g. because
+	// the image was changed and fetched again.
+	private void removeUnused(){
+		if(!Files.isDirectory(directory))
+			return;
+		HashSet<String> used = new HashSet<>();
+		for(String url : entries.stringPropertyNames()){
+			String value = entries.getProperty(url);
+			used.add(value.substring(value.indexOf(' ') + 1));
+		}
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)){
+			for(Path path : files){
+				String name = path.getFileName().toString();
+				if(!name.equals(indexFile.getFileName().toString()) && !used.contains(name))
+					Files.deleteIfExists(path);
+			}
+		}
+		catch(IOException e){
+			System.out.println(e.toString());
+		}
+	}
+
+
+
+	private void save(){
+		try{
+			Files.createDirectories(directory);
+			try(Writer w = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)){
+				entries.store(w, "Cached images: <time fetched> <file>");
+			}
+		}
+		catch(IOException e){
+			System.out.println(e.toString());
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package bot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Remembers which file ending (blending mode and filetype) each image uses,
+// so that repeated lookups of the same ship or outfit make no requests at
+// all. Images that do not exist are remembered too, for a shorter time.
+// The cache is kept on disk, and on a miss all possible endings are probed
+// at once with HEAD requests instead of downloading each image in turn.
+public class ImageEndingCache {
+
+	private static final String[] MODES = {"", "-0", "+0", "~0", "=0", "-00", "+00", "~00", "=00"};
+	private static final String[] FILETYPES = {".png", ".jpg"};
+	private static final long FOUND_TTL_MS = TimeUnit.DAYS.toMillis(7);
+	private static final long MISSING_TTL_MS = TimeUnit.HOURS.toMillis(12);
+	private static final int TIMEOUT_MS = 10000;
+
+	private final Path file;
+	private final Properties entries = new Properties();
+	private final ExecutorService probes = Executors.newFixedThreadPool(6, r -> {
+		Thread t = new Thread(r, "image-probe");
+		t.setDaemon(true);
+		return t;
+	});
+
+
+
+	public ImageEndingCache(Path file){
+		this.file = file;
+		if(Files.exists(file))
+			try(Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+				entries.load(r);
+			}
+			catch(IOException e){
+				System.out.println(e.toString());
+			}
+	}
+
+
+
+	/**
+	 * Determine which file ending the image at the given URL uses.
+	 * @param  String url           The image URL without any ending.
+	 * @return        The full ending (including the filetype), or nullstring
+	 *                "" if the image does not exist.
+	 */
+	public String getEnding(String url){
+		String cached;
+		synchronized(entries){
+			cached = entries.getProperty(url);
+		}
+		if(cached != null){
+			int split = cached.indexOf(' ');
+			long time = Long.parseLong(split < 0 ? cached : cached.substring(0, split));
+			String ending = split < 0 ? "" : cached.substring(split + 1);
+			long ttl = ending.isEmpty() ? MISSING_TTL_MS : FOUND_TTL_MS;
+			if(System.currentTimeMillis() - time < ttl)
+				return ending;
+		}
+
+		String ending = probe(url);
+		if(ending == null)
+			return "";
+		synchronized(entries){
+			entries.setProperty(url, System.currentTimeMillis() + " " + ending);
+			save();
+		}
+		return ending;
+	}
+
+
+
+	// Send a HEAD request for every possible ending at once, and return the
+	// first ending (in the order the game would prefer them) that exists.
+	// Returns null if the answer is unknown because a request failed.
+	private String probe(String url){
+		boolean hdpi = url.contains("/endless-sky-high-dpi/");
+		List<String> endings = new ArrayList<>();
+		for(String type : FILETYPES)
+			for(String mode : MODES)
+				endings.add(mode + (hdpi ? "%402x" : "") + type + "?raw=true");
+
+		List<Future<Integer>> results = new ArrayList<>(endings.size());
+		for(String ending : endings)
+			results.add(probes.submit(() -> exists(url + ending)));
+		boolean failed = false;
+		try{
+			for(int i = 0; i < endings.size(); ++i){
+				int found = results.get(i).get();
+				if(found > 0){
+					for(int j = i + 1; j < results.size(); ++j)
+						results.get(j).cancel(true);
+					return endings.get(i);
+				}
+				failed |= found < 0;
+			}
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			failed = true;
+		}
+		catch(ExecutionException e){
+			System.out.println(e.getCause().toString());
+			failed = true;
+		}
+		return failed ? null : "";
+	}
+
+
+
+	// Returns 1 if the image exists, 0 if it does not, or -1 if the request failed.
+	private static int exists(String url){
+		HttpURLConnection conn = null;
+		try{
+			conn = (HttpURLConnection)new URL(url).openConnection();
+			conn.setRequestMethod("HEAD");
+			conn.setConnectTimeout(TIMEOUT_MS);
+			conn.setReadTimeout(TIMEOUT_MS);
+			int status = conn.getResponseCode();
+			String type = conn.getContentType();
+			if(status == HttpURLConnection.HTTP_OK && (type == null || !type.startsWith("text/html")))
+				return 1;
+			return status == HttpURLConnection.HTTP_NOT_FOUND ? 0 : -1;
+		}
+		catch(IOException e){
+			return -1;
+		}
+		finally{
+			if(conn != null)
+				conn.disconnect();
+		}
+	}
+
+
+
+	private void save(){
+		try{
+			if(file.getParent() != null)
+				Files.createDirectories(file.getParent());
+			try(Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+				entries.store(w, "Resolved image endings: <time found> <ending>");
+			}
+		}
+		catch(IOException e){
+			System.out.println(e.toString());
+		}
+	}
+}
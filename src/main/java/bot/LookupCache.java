@@ -0,0 +1,103 @@
+package bot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Remembers how recent lookup requests were resolved: the node a request
+// names, its ship variant form, and the URL of its image, including requests
+// that found nothing. A single '-lookup' resolves the same request several
+// times over, and popular requests repeat from message to message.
+// The cache is derived from one DataIndex, so an update that replaces the
+// data replaces the cache along with it.
+public class LookupCache {
+
+	public static final int CAPACITY = 1024;
+	// Images are found over the network, so a missing image may only mean a
+	// failed request. Those are tried again after a while.
+	private static final long MISSING_IMAGE_MS = TimeUnit.MINUTES.toMillis(10);
+
+	// What is known about one request. Each part is resolved the first time
+	// it is asked for. Nothing is resolved while holding the lock, because
+	// resolving one request may resolve others.
+	public static final class Result {
+		private boolean hasNode = false;
+		private DataIndex.Entry node;
+		private String variant;
+		private String image;
+		private long imageTime;
+
+
+
+		// Returns the node the request names, or null if there is none.
+		public DataIndex.Entry getNode(Supplier<DataIndex.Entry> resolve){
+			synchronized(this){
+				if(hasNode)
+					return node;
+			}
+			DataIndex.Entry found = resolve.get();
+			synchronized(this){
+				node = found;
+				hasNode = true;
+			}
+			return found;
+		}
+
+
+
+		// Returns the request in ship variant form (or as it was, if that does
+		// not apply).
+		public String getVariant(Supplier<String> parse){
+			synchronized(this){
+				if(variant != null)
+					return variant;
+			}
+			String parsed = parse.get();
+			synchronized(this){
+				variant = parsed;
+			}
+			return parsed;
+		}
+
+
+
+		// Returns the full URL of the request's image, or nullstring if it has none.
+		public String getImage(Supplier<String> find){
+			synchronized(this){
+				if(image != null && (!image.isEmpty() || System.currentTimeMillis() - imageTime < MISSING_IMAGE_MS))
+					return image;
+			}
+			String url = find.get();
+			synchronized(this){
+				image = url;
+				imageTime = System.currentTimeMillis();
+			}
+			return url;
+		}
+	}
+
+	// Least recently used first.
+	private final LruMap<String, Result> results = new LruMap<>(CAPACITY);
+
+
+
+	// Returns what is known about the given request, making room for it by
+	// forgetting the least recently used request if necessary.
+	public Result get(String request){
+		String key = normalize(request);
+		synchronized(results){
+			Result result = results.get(key);
+			if(result == null){
+				result = new Result();
+				results.put(key, result);
+			}
+			return result;
+		}
+	}
+
+
+
+	// Requests that differ only in spacing are the same request.
+	public static String normalize(String request){
+		return request.trim().replaceAll("\\s+", " ");
+	}
+}
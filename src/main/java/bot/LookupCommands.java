@@ -1,21 +1,29 @@
 package bot;
 
-import java.io.BufferedReader;
+import java.awt.Color;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import javax.imageio.ImageIO;
 
 import de.btobastian.sdcf4j.Command;
 import de.btobastian.sdcf4j.CommandExecutor;
 import net.dv8tion.jda.core.EmbedBuilder;
+import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
@@ -24,7 +32,17 @@ import net.dv8tion.jda.core.entities.User;
 public class LookupCommands
 implements CommandExecutor{
 
-	private String data;
+	private final DataLoader data;
+	// Shared by every instance, so the cache survives an '-update'.
+	private static final ImageEndingCache imageEndings = new ImageEndingCache(Paths.get("data", "cache", "imageEndings.properties"));
+	private static final ImageCache images = new ImageCache(Paths.get("data", "cache", "images"));
+	// By channel ID: the ID of the message of the last plugin uploaded there.
+	private static final Map<String, String> latestPlugins = new ConcurrentHashMap<>();
+	private static final ExecutorService lookups = Executors.newFixedThreadPool(4, r -> {
+		Thread t = new Thread(r, "lookup");
+		t.setDaemon(true);
+		return t;
+	});
 	public static final String HOST_RAW_URL = "https://raw.githubusercontent.com/MCOfficer/EndlessSky-Discord-Bot/master";
 	public static final String CONTENT_URL = "https://github.com/endless-sky/endless-sky/raw/master";
 	public static final String CONTENT_HDPI_URL = "https://github.com/endless-sky/endless-sky-high-dpi/raw/master";
@@ -33,74 +51,84 @@ implements CommandExecutor{
 
 	public LookupCommands(ESBot bot){
 		this.bot = bot;
-		data = readData();
+		data = bot.getLookupData();
 		System.out.println("Lookups instantiated.");
 	}
 
-	// These datatypes are automatically checked for capitalization and
-	// quotation errors during lookups.
-	static final String[] dataTypes = {
-		"ship",
-		"outfit",
-		"mission",
-		"person",
-		"planet",
-		"system",
-		"shipyard",
-		"outfitter",
-		"effect",
-		"scene",
-		"fleet",
-		"event",
-		"government",
-		"phrase"
-	};
-
-
-
-	private String readData(){
-		String data = "";
-		
-		LinkedList<URL> dataFiles = new LinkedList<>();
-		try(BufferedReader br = new BufferedReader(Files.newBufferedReader(Paths.get("data", "dataFileNames.txt")))){
-			String line = br.readLine();
-
-			while (line != null){
-				dataFiles.add(new URL(bot.DATA_URL + line + ".txt"));
-				line = br.readLine();
-			}
-		}
-		catch(IOException e){
-			System.out.println("\nNo datafile found for file names.\nAll lookups will fail.\n");
-			System.out.println(e.toString());
-			return data;
-		}
-		try{
-			StringBuilder sb = new StringBuilder();
-			for(URL url : dataFiles){
-				try(BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()))){
-					String line = br.readLine();
-
-					while(line != null){
-						sb.append(line);
-						sb.append(System.lineSeparator());
-						line = br.readLine();
-					}
-					sb.append("\n~\n");
-				}
-				catch(IOException e){
-					// A file that is expected to exist might not (for example,
-					// lookups are being reinitialized but dataFileNames is old
-					// and the file was renamed on GitHub).
-					System.out.println(e.toString());
-				}
-			}
-			data = sb.toString();
+
+
+	// Returns the current data. It may be replaced by an update at any time.
+	private DataIndex index(){
+		return data.getIndex();
+	}
+
+
+
+	// Returns the data that a command's words ask for: the version named by
+	// a first word like "@v0.9.8", the plugin last uploaded to the channel for
+	// "@plugin" (or with the given message for "@plugin:<id>"), the current
+	// data after an event for '@event:"war begins"', or else the current data.
+	// Completes with null (and says so) if that could not be loaded. Nothing
+	// is loaded on the calling thread.
+	private CompletableFuture<DataIndex> index(MessageChannel channel, String[] words){
+		if(words.length == 0 || !words[0].startsWith("@"))
+			return CompletableFuture.completedFuture(index());
+		String version = words[0].substring(1);
+		if(version.startsWith("event:")){
+			String event = version.substring("event:".length()).replace("\"", "").replace("`", "").trim();
+			return async(() -> {
+				DataIndex after = index().getDerived(EventTimeline.class, EventTimeline::new).getAfter(event);
+				if(after == null)
+					Helper.OutputHelper(channel, "I could not find an event named '" + event + "'." + suggest(index(), "event " + event));
+				return after;
+			});
 		}
-		catch(Exception e){
-			e.printStackTrace();
+		if(version.equals("plugin") || version.startsWith("plugin:")){
+			String id = version.equals("plugin") ? latestPlugins.get(channel.getId()) : version.substring("plugin:".length());
+			Plugin plugin = id == null ? null : data.getPlugin(id);
+			if(plugin == null)
+				Helper.OutputHelper(channel, "That plugin is not loaded. Attach its zip to '-plugin' first.");
+			return CompletableFuture.completedFuture(plugin == null ? null : plugin.index);
 		}
-		return data;
+		return data.getVersion(version).thenApply(index -> {
+			if(index == null)
+				Helper.OutputHelper(channel, "I could not load the data of version '" + version + "'.");
+			return index;
+		});
+	}
+
+
+
+	// Split a command's arguments into words, keeping a quoted name in the
+	// first word together, as in '@event:"war begins"'.
+	private static String[] getWords(String[] args){
+		String[] words = Helper.getWords(args);
+		if(words.length < 2 || !words[0].startsWith("@") || (words[0].length() - words[0].replace("\"", "").length()) % 2 == 0)
+			return words;
+		int end = 1;
+		while(end < words.length - 1 && words[end].indexOf('"') < 0)
+			++end;
+		String[] joined = new String[words.length - end];
+		joined[0] = String.join(" ", Arrays.copyOfRange(words, 0, end + 1));
+		System.arraycopy(words, end + 1, joined, 1, joined.length - 1);
+		return joined;
+	}
+
+
+
+	// Run part of a command on the lookup threads, so that loading data,
+	// probing for images and sending messages never hold up the thread that
+	// handles Discord's events.
+	private static <T> CompletableFuture<T> async(Supplier<T> task){
+		return CompletableFuture.supplyAsync(task, lookups);
+	}
+
+
+
+	// Report the failure of a command that ran on the lookup threads.
+	private static Void log(Throwable e){
+		System.out.println(e.toString());
+		return null;
 	}
 
 
@@ -174,121 +202,505 @@ implements CommandExecutor{
 
 
 
-	@Command(aliases = {"-lookup"}, description = "Shows the image and description of X.", usage = "-lookup X", privateMessages = true)
+	@Command(aliases = {"-lookup"}, description = "Shows the image and description of X. Start with '@' and a release, e.g. '@v0.9.8', to see X as it was in that release, or '@event:' and an event to see X as it is after that event.", usage = "-lookup X\n-lookup @v0.9.8 X\n-lookup @event:\"war begins\" X", privateMessages = true)
 	public void onLookupCommand(Guild guild, MessageChannel channel, String[] args, User author){
 		if (author.isBot()) return;
-		String[] parsed = Helper.getWords(args);
-		if(parsed.length > 0){
-			String request = parsed[0];
-			for(int i = 1; i < parsed.length; ++i)
-				request += " " + parsed[i];
-			String message = "";
-			boolean printedImage = false;
-			String variantParsedRequest = ParseVariants(request);
-			if(PrintImage(guild, channel, lookupData(request))
-					|| PrintImage(guild, channel, lookupData(variantParsedRequest))
-					|| (IsShipVariantRequest(request)
-								&& PrintImage(guild, channel, lookupData(Helper.GetBaseModelName(request)))))
-				printedImage = true;
-			else
-				message = "There is no image associated with '" + request + "'";
-
-			String output = lookupData(variantParsedRequest);
-			if(!Helper.ShouldPrintThis(Helper.GetDataType(output)) && output.length() > 0){
-				Helper.OutputHelper(channel, "Try '-showdata' for that information.");
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		if(parsed.length <= first)
+			return;
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, parsed.length));
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
 				return;
-			}
-			if(output.contains("\tdescription")){
-				if(!printedImage)
-					message += ", but I did find this:\n\n";
+			String variantParsedRequest = ParseVariants(index, request);
+			CompletableFuture<String> text = async(() -> lookupData(index, variantParsedRequest));
+			CompletableFuture<String> image = async(() -> findImage(index, request));
+
+			// The description is sent as soon as it is found, and the image
+			// whenever its probes finish.
+			text.thenAcceptAsync(output -> {
+				if(output.length() < 1)
+					Helper.OutputHelper(channel, "I could not find anything associated with '" + variantParsedRequest + "'." + suggest(index, request));
+				else if(!Helper.ShouldPrintThis(Helper.GetDataType(output)))
+					Helper.OutputHelper(channel, "Try '-showdata' for that information.");
+				else if(Helper.GetDescription(output).length() > 0)
+					Helper.OutputHelper(channel, Helper.GetDescription(output));
+			}, lookups).exceptionally(LookupCommands::log);
+			image.thenAcceptAsync(url -> PrintImage(guild, channel, url), lookups).exceptionally(LookupCommands::log);
+
+			// Only once both are known can it say what is missing.
+			text.thenAcceptBothAsync(image, (output, url) -> {
+				if(output.length() < 1 || !Helper.ShouldPrintThis(Helper.GetDataType(output)))
+					return;
+				boolean hasDescription = Helper.GetDescription(output).length() > 0;
+				if(url.isEmpty())
+					Helper.OutputHelper(channel, "There is no image associated with '" + request + "'" + (hasDescription ? "." : ", nor any description."));
+				else if(!hasDescription)
+					Helper.OutputHelper(channel, "There is no description of '" + variantParsedRequest + "'.");
+			}, lookups).exceptionally(LookupCommands::log);
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-show"}, description = "Shows both image and all data associated with X.", usage = "-show X", privateMessages = true)
+	public void onShowCommand(Guild guild, MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		if(parsed.length <= first)
+			return;
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, parsed.length));
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			String variantParsedRequest = ParseVariants(index, request);
+			CompletableFuture<String> text = async(() -> lookupData(index, variantParsedRequest));
+			CompletableFuture<String> image = async(() -> findImage(index, request));
+
+			text.thenAcceptAsync(output -> {
+				if(output.length() > 0)
+					Helper.OutputHelper(channel, output);
+			}, lookups).exceptionally(LookupCommands::log);
+			image.thenAcceptAsync(url -> PrintImage(guild, channel, url), lookups).exceptionally(LookupCommands::log);
+
+			text.thenAcceptBothAsync(image, (output, url) -> {
+				if(output.length() < 1 && url.isEmpty())
+					Helper.OutputHelper(channel, "I could not find an image associated with '" + request + "', nor could I find any data." + suggest(index, request));
+				else if(output.length() < 1)
+					Helper.OutputHelper(channel, "I could not find any data associated with '" + variantParsedRequest + "'.");
+				else if(url.isEmpty())
+					Helper.OutputHelper(channel, "I could not find an image associated with '" + request + "'.");
+			}, lookups).exceptionally(LookupCommands::log);
+		}, lookups).exceptionally(LookupCommands::log);
+	}
 
-				message += output.substring(output.indexOf("\tdescription")).replaceAll("\tdescription", "");
+
+
+	@Command(aliases = {"-showimage", "-showImage"}, description = "Shows image of X. Does not print data.", usage = "-showimage X", privateMessages = true)
+	public void onShowimageCommand(Guild guild, MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		if(parsed.length <= first)
+			return;
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, parsed.length));
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index != null && !PrintImage(guild, channel, findImage(index, request)))
+				Helper.OutputHelper(channel, "I could not find an image associated with '" + request + "'."
+						+ (lookupData(index, request).length() < 1 ? suggest(index, request) : ""));
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-showdata", "-showData"}, description = "Shows data of X. Does not print images.", usage = "-showdata X", privateMessages = true)
+	public void onShowdataCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		if(parsed.length <= first)
+			return;
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, parsed.length));
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			String parsedRequest = ParseVariants(index, request);
+			String output = lookupData(index, parsedRequest);
+			if(output.length() < 1){
+				output = "I could not find any data associated with '" + parsedRequest + "'." + suggest(index, request);
 			}
-			else if(!printedImage)
-				message += ", nor any description.";
-			else if(printedImage)
-				message = "There is no description of '" + variantParsedRequest + "'.";
+			Helper.OutputHelper(channel, output);
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
 
-			if(output.length() < 1)
-				message = "I could not find anything associated with '" + variantParsedRequest + "'.";
 
-			if(message.length() > 0)
-				Helper.OutputHelper(channel, message);
+	@Command(aliases = {"-stats"}, description = "Shows the stats of ship X with its default outfits.", usage = "-stats X", privateMessages = true)
+	public void onStatsCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = Helper.getWords(args);
+		if(parsed.length > 0){
+			int first = parsed.length > 1 && parsed[0].equalsIgnoreCase("ship") ? 1 : 0;
+			String request = parsed[first];
+			for(int i = first + 1; i < parsed.length; ++i)
+				request += " " + parsed[i];
+			String ship = request;
+			async(() -> {
+				DataIndex index = index();
+				DataIndex.Entry node = NodeLookup.find(index, "ship " + ship);
+				if(node == null || !node.type.equals("ship"))
+					node = NodeLookup.find(index, "ship " + ParseVariants(index, ship));
+				AttributeTable.Loadout stats = node == null ? null
+						: index.getDerived(AttributeTable.class, AttributeTable::new).getLoadout(node);
+				if(stats == null)
+					Helper.OutputHelper(channel, "I could not find a ship named '" + ship + "'." + suggest(index, "ship " + ship));
+				else
+					Helper.OutputHelper(channel, formatStats(node.getName(), stats));
+				return null;
+			}).exceptionally(LookupCommands::log);
 		}
 	}
 
 
 
-	@Command(aliases = {"-show"}, description = "Shows both image and all data associated with X.", usage = "-show X", privateMessages = true)
-	public void onShowCommand(Guild guild, MessageChannel channel, String[] args, User author){
+	@Command(aliases = {"-find"}, description = "Lists the ships or outfits whose attributes meet the given conditions.", usage = "-find outfit where shield generation > 3 and mass < 30 sort by mass limit 10", privateMessages = true)
+	public void onFindCommand(MessageChannel channel, String[] args, User author){
 		if(author.isBot()) return;
 		String[] parsed = Helper.getWords(args);
 		if(parsed.length > 0){
 			String request = parsed[0];
 			for(int i = 1; i < parsed.length; ++i)
 				request += " " + parsed[i];
-			String message = "";
-			boolean printedImage = false;
-			String variantParsedRequest = ParseVariants(request);
-			if(PrintImage(guild, channel, lookupData(request))
-					|| PrintImage(guild, channel, lookupData(variantParsedRequest))
-					|| (IsShipVariantRequest(request)
-								&& PrintImage(guild, channel, lookupData(Helper.GetBaseModelName(request)))))
-				printedImage = true;
-			else
-				message = "I could not find an image associated with '" + request + "'";
-
-			String output = lookupData(variantParsedRequest);
-			if(output.length() < 1){
-				if(printedImage)
-					message = "I could not find any data associated with '" + variantParsedRequest + "'.";
-				else
-					message += ", nor could I find any data.";
-			}
-			else if(!printedImage)
-				message += ", but I did find this:\n\n";
+			String conditions = request;
+			async(() -> {
+				AttributeQuery finder = index().getDerived(AttributeQuery.class, AttributeQuery::new);
+				AttributeQuery.Query query;
+				AttributeQuery.Result result;
+				try{
+					query = AttributeQuery.Query.parse(conditions);
+					result = finder.run(query);
+				}
+				catch(IllegalArgumentException e){
+					Helper.OutputHelper(channel, e.getMessage() + "\nUsage: -find <ship|outfit> where <attribute> <op> <value> [and ...] [sort by <attribute> [asc|desc]] [limit N]");
+					return null;
+				}
+				if(result.matches == 0){
+					Helper.OutputHelper(channel, "No " + query.type + " matches '" + conditions + "'.");
+					return null;
+				}
 
-			Helper.OutputHelper(channel, message + output);
+				// Show the values that were asked about.
+				List<String> shown = new ArrayList<>();
+				for(AttributeQuery.Condition condition : query.conditions)
+					if(!shown.contains(condition.attribute))
+						shown.add(condition.attribute);
+				if(!query.sortBy.isEmpty() && !shown.contains(query.sortBy))
+					shown.add(query.sortBy);
+				StringBuilder sb = new StringBuilder(result.matches + " " + query.type + (result.matches == 1 ? "" : "s") + " found:");
+				for(DataIndex.Entry entry : result.entries){
+					sb.append("\n\u2022 " + entry.getName());
+					for(int i = 0; i < shown.size(); ++i)
+						sb.append((i == 0 ? " (" : ", ") + shown.get(i) + " " + formatNumber(finder.getValue(entry, shown.get(i))));
+					if(!shown.isEmpty())
+						sb.append(")");
+				}
+				if(result.matches > result.entries.size())
+					sb.append("\n\u2022 ... and " + (result.matches - result.entries.size()) + " more");
+				Helper.OutputHelper(channel, sb.toString());
+				return null;
+			}).exceptionally(LookupCommands::log);
 		}
 	}
 
 
 
-	@Command(aliases = {"-showimage", "-showImage"}, description = "Shows image of X. Does not print data.", usage = "-showimage X", privateMessages = true)
-	public void onShowimageCommand(Guild guild, MessageChannel channel, String[] args, User author){
+	@Command(aliases = {"-whereis", "-whereIs"}, description = "Shows where X can be bought or found, and what refers to it.", usage = "-whereis X", privateMessages = true)
+	public void onWhereisCommand(MessageChannel channel, String[] args, User author){
 		if(author.isBot()) return;
 		String[] parsed = Helper.getWords(args);
 		if(parsed.length > 0){
 			String request = parsed[0];
 			for(int i = 1; i < parsed.length; ++i)
 				request += " " + parsed[i];
-			if(PrintImage(guild, channel, lookupData(request))
-					|| PrintImage(guild, channel, lookupData(ParseVariants(request)))
-					|| (IsShipVariantRequest(request)
-								&& PrintImage(guild, channel, lookupData(Helper.GetBaseModelName(request))))){
-				// This request was handled.
+			String name = request;
+			async(() -> {
+				DataIndex index = index();
+				DataIndex.Entry node = NodeLookup.find(index, name);
+				if(node == null)
+					node = NodeLookup.find(index, ParseVariants(index, name));
+				if(node == null)
+					Helper.OutputHelper(channel, "I could not find anything associated with '" + name + "'." + suggest(index, name));
+				else
+					Helper.OutputHelper(channel, whereIs(index.getDerived(ReferenceIndex.class, ReferenceIndex::new), node));
+				return null;
+			}).exceptionally(LookupCommands::log);
+		}
+	}
+
+
+
+	@Command(aliases = {"-diff"}, description = "Shows what changed in the data between two versions. The filter may be a data type or part of a name.", usage = "-diff v0.9.8 master [filter]", privateMessages = true)
+	public void onDiffCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = Helper.getWords(args);
+		if(parsed.length < 2){
+			Helper.OutputHelper(channel, "Which two versions should I compare, e.g. '-diff v0.9.8 master'?");
+			return;
+		}
+		String filter = String.join(" ", Arrays.copyOfRange(parsed, 2, parsed.length));
+		// Both versions load at the same time.
+		CompletableFuture<DataIndex> older = index(channel, new String[]{"@" + parsed[0].replaceFirst("^@", "")});
+		CompletableFuture<DataIndex> newer = index(channel, new String[]{"@" + parsed[1].replaceFirst("^@", "")});
+		older.thenAcceptBothAsync(newer, (before, after) -> {
+			if(before == null || after == null)
+				return;
+
+			DataDiff.Result diff = DataDiff.compare(before, after, filter);
+			String summary = "Changes from " + parsed[0] + " to " + parsed[1] + (filter.isEmpty() ? "" : " (" + filter + ")")
+					+ ": " + diff.getSummary() + ".";
+			String text = String.join("\n", diff.lines);
+			if(diff.isEmpty())
+				Helper.OutputHelper(channel, summary);
+			else if(summary.length() + text.length() < 1800)
+				Helper.OutputHelper(channel, summary + "\n\n" + text);
+			else{
+				// Too long for a message, so send the whole diff as a file.
+				String name = "diff-" + parsed[0].replaceFirst("^@", "") + "-" + parsed[1].replaceFirst("^@", "") + ".txt";
+				byte[] file = text.getBytes(StandardCharsets.UTF_8);
+				channel.sendMessage(summary).queue(m -> channel.sendFile(file, name).queue());
+			}
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-route"}, description = "Shows the route with the fewest jumps from system (or planet) A to B. Start with 'jump' to use a jump drive instead of hyperspace links.", usage = "-route Sol to Alpha Centauri\n-route jump Sol to Vega", privateMessages = true)
+	public void onRouteCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int version = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		boolean jumpDrive = parsed.length > version && parsed[version].equalsIgnoreCase("jump");
+		int first = jumpDrive ? version + 1 : version;
+		if(parsed.length < first + 2){
+			Helper.OutputHelper(channel, "Which two systems, e.g. '-route Sol to Alpha Centauri'?");
+			return;
+		}
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			SystemGraph graph = index.getDerived(SystemGraph.class, SystemGraph::new);
+
+			// The two names are split at "to", or else wherever both are systems.
+			String[] words = Arrays.copyOfRange(parsed, first, parsed.length);
+			int split = -1;
+			for(int i = 1; i < words.length - 1 && split < 0; ++i)
+				if(words[i].equalsIgnoreCase("to"))
+					split = i;
+			String from = "";
+			String to = "";
+			for(int i = 1; i < words.length && split < 0; ++i){
+				from = String.join(" ", Arrays.copyOfRange(words, 0, i));
+				to = String.join(" ", Arrays.copyOfRange(words, i, words.length));
+				if(systemId(index, graph, from) >= 0 && systemId(index, graph, to) >= 0)
+					break;
+			}
+			if(split >= 0){
+				from = String.join(" ", Arrays.copyOfRange(words, 0, split));
+				to = String.join(" ", Arrays.copyOfRange(words, split + 1, words.length));
 			}
-			else
-				Helper.OutputHelper(channel, "I could not find an image associated with '" + request + "'.");
+
+			int a = systemId(index, graph, from);
+			int b = systemId(index, graph, to);
+			if(a < 0 || b < 0){
+				String missing = a < 0 ? from : to;
+				Helper.OutputHelper(channel, "I could not find a system or planet named '" + missing + "'." + suggest(index, "system " + missing));
+				return;
+			}
+			int[] route = graph.route(a, b, jumpDrive);
+			String start = graph.getEntry(a).getName();
+			String end = graph.getEntry(b).getName();
+			if(route == null){
+				Helper.OutputHelper(channel, "There is no route from " + start + " to " + end + (jumpDrive ? " with a jump drive." : " by hyperspace links."));
+				return;
+			}
+			int jumps = route.length - 1;
+			StringBuilder sb = new StringBuilder(start + " to " + end + ": " + jumps + (jumps == 1 ? " jump" : " jumps")
+					+ (jumpDrive ? " with a jump drive" : " by hyperspace links") + ".");
+			for(int system : route)
+				sb.append("\n\u2022 " + graph.getEntry(system).getName());
+			Helper.OutputHelper(channel, sb.toString());
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-map"}, description = "Draws the map around system (or planet) X, out to the given radius. Without X, draws the whole map.", usage = "-map [X] [radius]\n-map Sol 400", privateMessages = true)
+	public void onMapCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		int last = parsed.length;
+		double radius = 400.;
+		if(last > first && Helper.GetNumeric(parsed[last - 1]).equals(parsed[last - 1])){
+			radius = Double.parseDouble(parsed[last - 1]);
+			--last;
 		}
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, last));
+		double viewRadius = radius;
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			SystemGraph graph = index.getDerived(SystemGraph.class, SystemGraph::new);
+			int center = request.isEmpty() ? -1 : systemId(index, graph, request);
+			if(!request.isEmpty() && center < 0){
+				Helper.OutputHelper(channel, "I could not find a system or planet named '" + request + "'." + suggest(index, "system " + request));
+				return;
+			}
+			try{
+				MapRenderer.render(graph, center, viewRadius)
+						.thenAccept(image -> channel.sendFile(image, "map.png").queue())
+						.exceptionally(LookupCommands::log);
+			}
+			catch(RejectedExecutionException e){
+				Helper.OutputHelper(channel, "I am drawing too many maps right now. Please try again in a moment.");
+			}
+		}, lookups).exceptionally(LookupCommands::log);
 	}
 
 
 
-	@Command(aliases = {"-showdata", "-showData"}, description = "Shows data of X. Does not print images.", usage = "-showdata X", privateMessages = true)
-	public void onShowdataCommand(MessageChannel channel, String[] args, User author){
+	@Command(aliases = {"-trade"}, description = "Lists the most profitable trades from system (or planet) X to the systems within the given number of jumps. Without X, searches from every system.", usage = "-trade [X] [jumps]\n-trade Sol 2", privateMessages = true)
+	public void onTradeCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		int last = parsed.length;
+		int jumps = 1;
+		if(last > first && Helper.GetNumeric(parsed[last - 1]).equals(parsed[last - 1]) && parsed[last - 1].length() < 3){
+			jumps = Math.max(1, Math.min(TradeTable.MAX_JUMPS, Integer.parseInt(parsed[last - 1])));
+			--last;
+		}
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, last));
+		int maxJumps = jumps;
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			TradeTable trade = index.getDerived(TradeTable.class, TradeTable::new);
+			SystemGraph graph = trade.getGraph();
+			int from = request.isEmpty() ? -1 : systemId(index, graph, request);
+			if(!request.isEmpty() && from < 0){
+				Helper.OutputHelper(channel, "I could not find a system or planet named '" + request + "'." + suggest(index, "system " + request));
+				return;
+			}
+
+			String range = maxJumps + (maxJumps == 1 ? " jump" : " jumps");
+			StringBuilder sb = new StringBuilder(from < 0 ? "The best trades anywhere, within " + range + ":"
+					: "The best trades from " + graph.getEntry(from).getName() + ", within " + range + ":");
+			List<TradeTable.Trade> trades = trade.find(from, maxJumps);
+			for(TradeTable.Trade t : trades)
+				sb.append("\n\u2022 " + trade.getCommodity(t.commodity) + ": buy in " + graph.getEntry(t.from).getName() + " at " + t.buy
+						+ ", sell in " + graph.getEntry(t.to).getName() + " at " + t.sell + " (+" + t.getProfit() + ", "
+						+ t.jumps + (t.jumps == 1 ? " jump)" : " jumps)"));
+			if(trades.isEmpty())
+				sb.append("\n\u2022 none");
+			Helper.OutputHelper(channel, sb.toString());
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-jumprange"}, description = "Lists the systems within the given distance of system (or planet) X, nearest first. Without a distance, uses the jump range of X.", usage = "-jumprange X [distance]\n-jumprange Sol 150", privateMessages = true)
+	public void onJumprangeCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = getWords(args);
+		int first = parsed.length > 0 && parsed[0].startsWith("@") ? 1 : 0;
+		int last = parsed.length;
+		double distance = -1.;
+		if(last > first + 1 && Helper.GetNumeric(parsed[last - 1]).equals(parsed[last - 1])){
+			distance = Double.parseDouble(parsed[last - 1]);
+			--last;
+		}
+		if(last <= first){
+			Helper.OutputHelper(channel, "Which system, e.g. '-jumprange Sol'?");
+			return;
+		}
+		String request = String.join(" ", Arrays.copyOfRange(parsed, first, last));
+		double maxDistance = distance;
+		index(channel, parsed).thenAcceptAsync(index -> {
+			if(index == null)
+				return;
+			SystemGraph graph = index.getDerived(SystemGraph.class, SystemGraph::new);
+			int from = systemId(index, graph, request);
+			if(from < 0){
+				Helper.OutputHelper(channel, "I could not find a system or planet named '" + request + "'." + suggest(index, "system " + request));
+				return;
+			}
+			double range = maxDistance >= 0. ? maxDistance : graph.getJumpRange(from);
+			double x = graph.getX(from);
+			double y = graph.getY(from);
+			List<Integer> systems = new ArrayList<>();
+			for(int system : graph.findInRange(x, y, range))
+				if(system != from)
+					systems.add(system);
+			systems.sort(Comparator.comparingDouble(system -> Math.hypot(graph.getX(system) - x, graph.getY(system) - y)));
+
+			String name = graph.getEntry(from).getName();
+			List<String> lines = new ArrayList<>(systems.size());
+			for(int system : systems)
+				lines.add(graph.getEntry(system).getName() + " ("
+						+ formatNumber(Math.round(Math.hypot(graph.getX(system) - x, graph.getY(system) - y) * 10.) / 10.) + ")");
+			StringBuilder sb = new StringBuilder("The systems within " + formatNumber(range) + " of " + name + ":");
+			sb.append(bulletList(lines, 30));
+			if(systems.isEmpty()){
+				int nearest = graph.findNearest(x, y, from);
+				sb.append("\n\u2022 none");
+				if(nearest >= 0)
+					sb.append("\nThe nearest system is " + graph.getEntry(nearest).getName() + ", "
+							+ formatNumber(Math.round(Math.hypot(graph.getX(nearest) - x, graph.getY(nearest) - y) * 10.) / 10.) + " away.");
+			}
+			Helper.OutputHelper(channel, sb.toString());
+		}, lookups).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-plugin"}, description = "Reads the plugin zip attached to the message, and lists the nodes it adds and overrides. Look into it with e.g. '-lookup @plugin X'.", usage = "-plugin [attached zip]", privateMessages = true)
+	public void onPluginCommand(MessageChannel channel, Message msg, User author){
+		if(author.isBot()) return;
+		if(msg.getAttachments().isEmpty()){
+			Helper.OutputHelper(channel, "Attach the plugin's zip file to the message.");
+			return;
+		}
+		Message.Attachment zip = msg.getAttachments().get(0);
+		if(zip.getSize() > Plugin.MAX_UPLOAD){
+			Helper.OutputHelper(channel, "Plugins of up to " + (Plugin.MAX_UPLOAD >> 20) + " MB can be read.");
+			return;
+		}
+		async(() -> {
+			try(InputStream in = zip.getInputStream()){
+				Plugin plugin = Plugin.read(in, zip.getFileName(), index());
+				data.addPlugin(msg.getId(), plugin);
+				latestPlugins.put(channel.getId(), msg.getId());
+				Helper.OutputHelper(channel, describePlugin(plugin, msg.getId()));
+			}
+			catch(IOException e){
+				Helper.OutputHelper(channel, "I could not read '" + zip.getFileName() + "': " + e.getMessage());
+			}
+			return null;
+		}).exceptionally(LookupCommands::log);
+	}
+
+
+
+	@Command(aliases = {"-complete"}, description = "Lists the names that begin with X. The first word may be a data type, e.g. 'ship'.", usage = "-complete X", privateMessages = true)
+	public void onCompleteCommand(MessageChannel channel, String[] args, User author){
 		if(author.isBot()) return;
 		String[] parsed = Helper.getWords(args);
 		if(parsed.length > 0){
-			String request = parsed[0];
-			for(int i = 1; i < parsed.length; ++i)
+			String type = "";
+			int first = 0;
+			if(parsed.length > 1 && NodeLookup.isDataType(parsed[0].toLowerCase()))
+				type = parsed[first++].toLowerCase();
+			String request = parsed[first];
+			for(int i = first + 1; i < parsed.length; ++i)
 				request += " " + parsed[i];
-			request = ParseVariants(request);
-			String output = lookupData(request);
-			if(output.length() < 1){
-				output = "I could not find any data associated with '" + request + "'.";
-			}
-			Helper.OutputHelper(channel, output);
+			String prefix = request;
+			String ofType = type;
+			async(() -> {
+				DataIndex index = index();
+				List<DataIndex.Entry> found = index.getDerived(PrefixIndex.class, PrefixIndex::new).complete(prefix, ofType, 15);
+				if(found.isEmpty()){
+					Helper.OutputHelper(channel, "Nothing begins with '" + prefix + "'." + suggest(index, prefix));
+					return null;
+				}
+				StringBuilder sb = new StringBuilder();
+				for(DataIndex.Entry entry : found)
+					sb.append(entry.type + " " + entry.key + "\n");
+				Helper.OutputHelper(channel, sb.toString());
+				return null;
+			}).exceptionally(LookupCommands::log);
 		}
 	}
 
@@ -304,11 +716,41 @@ implements CommandExecutor{
 			String request = parsed[0];
 			for(int i = 1; i < parsed.length; ++i)
 				request += " " + parsed[i];
-			String quote = generateQuote(request);
-			if(quote.length() > 0)
-				channel.sendMessage("```\n``" + quote + "``\n\n" + "\t-- " + request + "```").queue();
-			else
-				channel.sendMessage("'" + request + "' hasn't said anything interesting.").queue();
+			String person = request;
+			async(() -> {
+				String quote = generateQuote(person);
+				if(quote.length() > 0)
+					channel.sendMessage("```\n``" + quote + "``\n\n" + "\t-- " + person + "```").queue();
+				else
+					channel.sendMessage("'" + person + "' hasn't said anything interesting.").queue();
+				return null;
+			}).exceptionally(LookupCommands::log);
+		}
+	}
+
+
+
+	@Command(aliases = {"-phrase"}, description = "Generate text from the phrase named X.", usage = "-phrase X", privateMessages = true)
+	public void onPhraseCommand(MessageChannel channel, String[] args, User author){
+		if(author.isBot()) return;
+		String[] parsed = Helper.getWords(args);
+		if(parsed.length < 1)
+			channel.sendMessage("Which phrase?").queue();
+		else{
+			String request = parsed[0];
+			for(int i = 1; i < parsed.length; ++i)
+				request += " " + parsed[i];
+			String phrase = request;
+			async(() -> {
+				String text = index().getDerived(PhraseGrammar.class, PhraseGrammar::new).getPhrase(phrase);
+				if(text == null)
+					Helper.OutputHelper(channel, "I could not find a phrase named '" + phrase + "'.");
+				else if(text.trim().isEmpty())
+					channel.sendMessage("'" + phrase + "' came out empty.").queue();
+				else
+					channel.sendMessage("```\n" + text + "```").queue();
+				return null;
+			}).exceptionally(LookupCommands::log);
 		}
 	}
 
@@ -339,29 +781,38 @@ implements CommandExecutor{
 
 		// If no number is given, assign 9 to prevent a NumberFormatException.
 		int swizzle = swizzleStr.length() == 0 ? 9 : new Integer(swizzleStr).intValue();
-		EmbedBuilder eb = new EmbedBuilder();
-		eb.setTitle("EndlessSky-Discord-Bot", bot.HOST_PUBLIC_URL);
-		eb.setColor(guild.getMember(bot.getSelf()).getColor());
-		if(swizzle >= 0 && swizzle <= 8){
-			String[] vectors = {
-					"{GL_RED, GL_GREEN, GL_BLUE, GL_ALPHA} // red + yellow markings (republic)",
-					"{GL_RED, GL_BLUE, GL_GREEN, GL_ALPHA} // red + magenta markings",
-					"{GL_GREEN, GL_RED, GL_BLUE, GL_ALPHA} // green + yellow (freeholders)",
-					"{GL_BLUE, GL_RED, GL_GREEN, GL_ALPHA} // green + cyan",
-					"{GL_GREEN, GL_BLUE, GL_RED, GL_ALPHA} // blue + magenta (syndicate)",
-					"{GL_BLUE, GL_GREEN, GL_RED, GL_ALPHA} // blue + cyan (merchant)",
-					"{GL_GREEN, GL_BLUE, GL_BLUE, GL_ALPHA} // red and black (pirate)",
-					"{GL_BLUE, GL_ZERO, GL_ZERO, GL_ALPHA} // red only (cloaked)",
-					"{GL_ZERO, GL_ZERO, GL_ZERO, GL_ALPHA} // black only (outline)"
-			};
-			eb.setDescription("**Swizzle Vector:**\n```" + vectors[swizzle] + "```\n\n**Governments using this swizzle:**\n" + getGovernmentsBySwizzle(swizzle));
-			eb.setThumbnail(bot.HOST_RAW_URL + "/thumbnails/swizzles/" + swizzle + ".png");
-		}
-		else{
-			eb.setDescription("This swizzle does not exist.");
-			eb.setThumbnail(bot.HOST_RAW_URL + "/thumbnails/cross.png");
-		}
-		channel.sendMessage(eb.build()).queue();
+		async(() -> {
+			EmbedBuilder eb = new EmbedBuilder();
+			eb.setTitle("EndlessSky-Discord-Bot", bot.HOST_PUBLIC_URL);
+			eb.setColor(guild.getMember(bot.getSelf()).getColor());
+			if(swizzle >= 0 && swizzle <= 8){
+				String[] vectors = {
+						"{GL_RED, GL_GREEN, GL_BLUE, GL_ALPHA} // red + yellow markings (republic)",
+						"{GL_RED, GL_BLUE, GL_GREEN, GL_ALPHA} // red + magenta markings",
+						"{GL_GREEN, GL_RED, GL_BLUE, GL_ALPHA} // green + yellow (freeholders)",
+						"{GL_BLUE, GL_RED, GL_GREEN, GL_ALPHA} // green + cyan",
+						"{GL_GREEN, GL_BLUE, GL_RED, GL_ALPHA} // blue + magenta (syndicate)",
+						"{GL_BLUE, GL_GREEN, GL_RED, GL_ALPHA} // blue + cyan (merchant)",
+						"{GL_GREEN, GL_BLUE, GL_BLUE, GL_ALPHA} // red and black (pirate)",
+						"{GL_BLUE, GL_ZERO, GL_ZERO, GL_ALPHA} // red only (cloaked)",
+						"{GL_ZERO, GL_ZERO, GL_ZERO, GL_ALPHA} // black only (outline)"
+				};
+				SwizzleIndex swizzles = index().getDerived(SwizzleIndex.class, SwizzleIndex::new);
+				String description = "**Swizzle Vector:**\n```" + vectors[swizzle] + "```\n\n**Governments using this swizzle:**\n" + getGovernmentsBySwizzle(swizzle);
+				if(!swizzles.getFleets(swizzle).isEmpty())
+					description += "\n\n**Fleets using this swizzle:**\n" + bulletList(swizzles.getFleets(swizzle), 15);
+				if(!swizzles.getShips(swizzle).isEmpty())
+					description += "\n\n**Ships using this swizzle:**\n" + bulletList(swizzles.getShips(swizzle), 10);
+				eb.setDescription(description);
+				eb.setThumbnail(bot.HOST_RAW_URL + "/thumbnails/swizzles/" + swizzle + ".png");
+			}
+			else{
+				eb.setDescription("This swizzle does not exist.");
+				eb.setThumbnail(bot.HOST_RAW_URL + "/thumbnails/cross.png");
+			}
+			channel.sendMessage(eb.build()).queue();
+			return null;
+		}).exceptionally(LookupCommands::log);
 	}
 
 
@@ -369,85 +820,62 @@ implements CommandExecutor{
 	// Convert the requested lookup parameter into the relevant data
 	// from the Endless Sky GitHub repository.
 	// Returns nullstring if no data could be found.
-	private String lookupData(String lookup){
-		// Remove any leading or trailing spaces.
-		lookup = lookup.trim();
-		// The first word of the lookup may be a supported dataType.
-		int countWords = 1 + Helper.CountOf(lookup, ' ');
-		String category = "";
-		if(countWords > 1){
-			category = lookup.substring(0, lookup.indexOf(" ")).toLowerCase();
-			boolean isCategory = false;
-			// Is the first word a dataType?
-			for(String str : dataTypes)
-				if(str.contains(category)){
-					isCategory = true;
-					break;
-				}
-			
-			if(isCategory)
-				lookup = lookup.substring(lookup.indexOf(" ") + 1);
-			else
-				category = "";
-		}
-		lookup = checkLookup(category, lookup, true);
-		if(lookup.length() > 0){
-			int start = data.indexOf(lookup);
-			int end = start + lookup.length();
-			do{
-				end = data.indexOf('\n', end + 1);
-			}
-			// A line that starts with a tab, newline, or comment is considered to be
-			// a part of this current lookup. Advance to the next newline.
-			while(data.charAt(end + 1) == '\t' || data.charAt(end + 1) == '\n' || data.charAt(end + 1) == '#');
-			return data.substring(start, end);
-		}
-
-		return "";
+	private String lookupData(DataIndex index, String request){
+		DataIndex.Entry node = NodeLookup.find(index, request);
+		return node == null ? "" : index.getText(node);
 	}
 
 
 
-	// Queries the loaded datafiles for special Endless Sky keywords.
-	// If helper is 'true', will try both as-passed 'lookup', and with
-	// enforced word capitalization.
-	// If the first word of a lookup was a supported category, it is not
-	// subjected to capitalization and quoting.
-	private String checkLookup(String dataType, String lookup, boolean helper){
-		// The lookup may be exact:
-		if(data.contains("\n" + lookup))
-			return "\n" + lookup;
-
-		// A supported dataType limiter may have been used.
-		if(dataType.length() > 0){
-			if(data.contains("\n" + dataType + " \"" + lookup + "\""))
-				return "\n" + dataType + " \"" + lookup + "\"";
-			else if(data.contains("\n" + dataType + " " + lookup))
-				return "\n" + dataType + " " + lookup;
+	// Suggest the names closest to a request that could not be found.
+	// Returns nullstring if nothing is close enough.
+	private String suggest(DataIndex index, String request){
+		request = request.trim();
+		String type = "";
+		int space = request.indexOf(' ');
+		if(space > 0 && NodeLookup.isDataType(request.substring(0, space).toLowerCase())){
+			type = request.substring(0, space).toLowerCase();
+			request = request.substring(space + 1);
 		}
-		else{
-			for(String str : dataTypes){
-				if(data.contains("\n" + str + " \"" + lookup + "\""))
-					return "\n" + str + " \"" + lookup + "\"";
-				else if(data.contains("\n" + str + " " + lookup))
-					return "\n" + str + " " + lookup;
-			}
-		}
-		// The input may not have been capitalized correctly.
-		if(helper){
-			lookup = Helper.CapitalizeWords(lookup);
-			return checkLookup(dataType, lookup, false);
+		List<DataIndex.Entry> matches = index.getDerived(FuzzyIndex.class, FuzzyIndex::new).search(request, type, 5);
+		if(matches.isEmpty())
+			return "";
+		StringBuilder sb = new StringBuilder("\nDid you mean: ");
+		for(int i = 0; i < matches.size(); ++i){
+			if(i > 0)
+				sb.append(", ");
+			sb.append("'" + matches.get(i).getName() + "' (" + matches.get(i).type + ")");
 		}
+		return sb.append("?").toString();
+	}
 
-		return "";
+
+
+	// Find the image of the request, trying it as given, in ship variant
+	// form, and as the base model of the variant. Returns the full URL of
+	// the image, or nullstring if there is none.
+	private String findImage(DataIndex index, String lookup){
+		String request = LookupCache.normalize(lookup);
+		return NodeLookup.cache(index).get(request).getImage(() -> {
+			String url = GetImageUrl(lookupData(index, request));
+			if(url.isEmpty())
+				url = GetImageUrl(lookupData(index, ParseVariants(index, request)));
+			if(url.isEmpty() && IsShipVariantRequest(index, request))
+				url = GetImageUrl(lookupData(index, Helper.GetBaseModelName(request)));
+			// Variants have no sprite of their own, but share their base model's.
+			DataIndex.Entry baseModel = url.isEmpty() ? NodeLookup.findBaseModel(index, request) : null;
+			if(baseModel != null)
+				url = GetImageUrl(index.getText(baseModel));
+			return url;
+		});
 	}
 
 
 
-	// Check the string for image characteristics, and if found, print the image
-	// to the specified channel & return true. Returns false for no image or no
-	// valid image ending.
-	private boolean PrintImage(Guild guild, MessageChannel channel, String input){
+	// Check the string for image characteristics, and if found, return the
+	// full URL of the image. Returns nullstring for no image or no valid
+	// image ending.
+	private String GetImageUrl(String input){
 		if(Helper.HasImageToPrint(input)){
 			String imageName = Helper.GetImageName(input);
 			String filepath = Helper.urlEncode(CONTENT_HDPI_URL + "/images/" + imageName);
@@ -456,16 +884,36 @@ implements CommandExecutor{
 				filepath = Helper.urlEncode(CONTENT_URL + "/images/" + imageName);
 				ending = GetImageEnding(filepath);
 			}
-			else if (ending.length() > 0){
-				EmbedBuilder eb = new EmbedBuilder();
-				eb.setImage(filepath + ending);
-				eb.setColor(guild.getMember(bot.getSelf()).getColor());
-				channel.sendMessage(eb.build()).queue();
-				return true;
-			}
+			if(ending.length() > 0)
+				return filepath + ending;
 		}
 
-		return false;
+		return "";
+	}
+
+
+
+	// Print the image at the given URL to the specified channel & return
+	// true. Returns false if there is no image. The image is uploaded from
+	// the local cache once it has been fetched and scaled; if that fails,
+	// Discord is left to fetch it from the URL instead.
+	private boolean PrintImage(Guild guild, MessageChannel channel, String url){
+		if(url.isEmpty())
+			return false;
+		Color color = guild == null ? null : guild.getMember(bot.getSelf()).getColor();
+		images.get(url).thenAccept(image -> {
+			EmbedBuilder eb = new EmbedBuilder();
+			eb.setColor(color);
+			if(image == null){
+				eb.setImage(url);
+				channel.sendMessage(eb.build()).queue();
+				return;
+			}
+			String name = ImageCache.getFileName(url);
+			eb.setImage("attachment://" + name);
+			channel.sendFile(image, name, new MessageBuilder().setEmbed(eb.build()).build()).queue();
+		}).exceptionally(LookupCommands::log);
+		return true;
 	}
 
 
@@ -483,36 +931,18 @@ implements CommandExecutor{
 
 
 
-	// Iterate the possible image blending modes to determine which is the
-	// appropriate file ending for the given file. Assumes all image files
-	// are .png or .jpg (landscapes). Returns nullstring "" if no ending works, otherwise returns
-	// the full ending (including the filetype).
+	// Determine the appropriate file ending for the given file from its
+	// possible image blending modes. Assumes all image files are .png or .jpg
+	// (landscapes). Returns nullstring "" if no ending works, otherwise returns
+	// the full ending (including the filetype). Results are cached on disk.
 	public String GetImageEnding(String url){
-		String[] modes = {"", "-0", "+0", "~0", "=0", "-00", "+00", "~00", "=00"};
-		String[] filetypes = {".png", ".jpg"};
-		boolean hdpi = url.contains("/endless-sky-high-dpi/");
-		int m = 0;
-		int t = 0;
-		boolean hasEnding = isImage(url + modes[m] + (hdpi ? "%402x" : "") + filetypes[t] + "?raw=true");
-
-		while(!hasEnding && t < filetypes.length){
-			m = t > 0 ? -1 : 0;
-			while(!hasEnding && ++m < modes.length){
-				hasEnding = isImage(url + modes[m] + (hdpi ? "%402x" : "") + filetypes[t] + "?raw=true");
-			}
-			if(!hasEnding)
-				++t;
-		}
-		if(hasEnding)
-			return modes[m] + (hdpi ? "%402x" : "") + filetypes[t] + "?raw=true";
-
-		return "";
+		return imageEndings.getEnding(url);
 	}
 
 
 
 	// Check if the request is for a ship variant.
-	private boolean IsShipVariantRequest(String request){
+	private boolean IsShipVariantRequest(DataIndex index, String request){
 		// All Endless Sky ship variants have the name in parentheses by convention.
 		if(request.indexOf('(') < 0 || request.indexOf(')') < 0)
 			return false;
@@ -522,12 +952,12 @@ implements CommandExecutor{
 		// e.g. '"base name" "base name (variant)"', 'Thruster (Stellar Class)', or
 		// '"Thruster (Stellar Class)"'
 		String base = Helper.GetBaseModelName(request);
-		if(lookupData(request).length() > 0)
+		if(lookupData(index, request).length() > 0)
 			return request.indexOf(base) != request.lastIndexOf(base);
 
 		// The request is not something that matches existing data keywords (yet).
-		request = ParseVariants(request);
-		if(lookupData(request).length() > 0)
+		request = ParseVariants(index, request);
+		if(lookupData(index, request).length() > 0)
 			return true;
 
 		// This request doesn't return data at all.
@@ -539,78 +969,166 @@ implements CommandExecutor{
 	// Check for improperly-formatted ship variants, which require speccing as
 	// "base model" "base model (variant)". If the request was not correctly
 	// formatted, returns the request in the proper ship variant format.
-	private String ParseVariants(String input){
-		if((input.indexOf('(') > 0 || input.indexOf(')') > 0) && lookupData(input).length() < 1){
-			String baseModel = Helper.GetBaseModelName(input);
-			if(baseModel.length() > 0
-					&& input.indexOf(baseModel) == input.lastIndexOf(baseModel))
-				input = "\"" + baseModel.replace("\"", "") + "\" \"" + input.replace("\"", "") + "\"";
+	private String ParseVariants(DataIndex index, String request){
+		String input = LookupCache.normalize(request);
+		return NodeLookup.cache(index).get(input).getVariant(() -> {
+			if((input.indexOf('(') > 0 || input.indexOf(')') > 0) && lookupData(index, input).length() < 1){
+				String baseModel = Helper.GetBaseModelName(input);
+				if(baseModel.length() > 0
+						&& input.indexOf(baseModel) == input.lastIndexOf(baseModel))
+					return "\"" + baseModel.replace("\"", "") + "\" \"" + input.replace("\"", "") + "\"";
+			}
+
+			return input;
+		});
+	}
+
+
+
+	// Returns the number of the named system, or of the system the named
+	// planet is in. Returns -1 if there is neither.
+	private static int systemId(DataIndex index, SystemGraph graph, String name){
+		int id = graph.getId(name);
+		if(id >= 0)
+			return id;
+		DataIndex.Entry planet = index.getDerived(FuzzyIndex.class, FuzzyIndex::new).find(name, "planet");
+		if(planet != null)
+			for(DataIndex.Entry system : index.getDerived(ReferenceIndex.class, ReferenceIndex::new).getReferrers("planet", planet.getName(), "system"))
+				if(graph.getId(system.getName()) >= 0)
+					return graph.getId(system.getName());
+		return -1;
+	}
+
+
+
+	// Summarize what an uploaded plugin changes, and how to look into it.
+	private static String describePlugin(Plugin plugin, String id){
+		int nodes = plugin.added.size() + plugin.overridden.size() + plugin.unchanged.size();
+		StringBuilder sb = new StringBuilder(plugin.name + ": " + plugin.files.size()
+				+ (plugin.files.size() == 1 ? " data file, " : " data files, ") + nodes + (nodes == 1 ? " node." : " nodes."));
+		listNodes(sb, "Overrides", plugin.overridden);
+		listNodes(sb, "Adds", plugin.added);
+		if(!plugin.unchanged.isEmpty())
+			sb.append("\n\n" + plugin.unchanged.size() + " more repeat the base data exactly.");
+		sb.append("\n\nLook into it with '-lookup @plugin X', or '-lookup @plugin:" + id + " X' once another plugin is uploaded here.");
+		return sb.toString();
+	}
+
+
+
+	private static void listNodes(StringBuilder sb, String verb, List<DataIndex.Entry> nodes){
+		final int max = 20;
+		if(nodes.isEmpty())
+			return;
+		sb.append("\n\n" + verb + " " + nodes.size() + (nodes.size() == 1 ? " node:" : " nodes:"));
+		for(int i = 0; i < nodes.size() && i < max; ++i)
+			sb.append("\n\u2022 " + nodes.get(i).getLine());
+		if(nodes.size() > max)
+			sb.append("\n\u2022 ... and " + (nodes.size() - max) + " more");
+	}
+
+
+
+	// List where the given node can be bought or found, and every node that
+	// refers to it, grouped by type.
+	private static String whereIs(ReferenceIndex references, DataIndex.Entry node){
+		String name = node.getName();
+		StringBuilder sb = new StringBuilder(name + " (" + node.type + ")");
+
+		// Outfits and ships are sold on the planets that have an outfitter or
+		// shipyard listing them; planets and fleets are found in systems.
+		List<String> places = new ArrayList<>();
+		List<DataIndex.Entry> planets = new ArrayList<>();
+		String seller = node.type.equals("outfit") ? "outfitter" : node.type.equals("ship") ? "shipyard" : "";
+		if(!seller.isEmpty()){
+			for(DataIndex.Entry shop : references.getReferrers(node.type, name, seller))
+				for(DataIndex.Entry planet : references.getReferrers(seller, shop.getName(), "planet"))
+					if(!planets.contains(planet))
+						planets.add(planet);
 		}
+		else if(node.type.equals("outfitter") || node.type.equals("shipyard"))
+			planets.addAll(references.getReferrers(node.type, name, "planet"));
+		for(DataIndex.Entry planet : planets){
+			List<DataIndex.Entry> systems = references.getReferrers("planet", planet.getName(), "system");
+			places.add(planet.getName() + (systems.isEmpty() ? "" : " (" + systems.get(0).getName() + ")"));
+		}
+		if(!seller.isEmpty())
+			sb.append("\nSold at:" + (places.isEmpty() ? " nowhere" : bulletList(places, 20)));
+		else if(!places.isEmpty())
+			sb.append("\nFound at:" + bulletList(places, 20));
+
+		List<DataIndex.Entry> referrers = references.getReferrers(node.type, name);
+		List<String> types = new ArrayList<>();
+		for(DataIndex.Entry referrer : referrers)
+			if(!types.contains(referrer.type))
+				types.add(referrer.type);
+		for(String type : types){
+			List<String> names = new ArrayList<>();
+			for(DataIndex.Entry referrer : referrers)
+				if(referrer.type.equals(type) && !names.contains(referrer.getName()))
+					names.add(referrer.getName());
+			sb.append("\n" + type + ":" + bulletList(names, 20));
+		}
+		if(referrers.isEmpty() && places.isEmpty() && seller.isEmpty())
+			sb.append("\nNothing refers to it.");
+		return sb.toString();
+	}
+
+
+
+	// Write whole numbers without a decimal point.
+	private static String formatNumber(double value){
+		if(value == Math.rint(value) && Math.abs(value) < 1e15)
+			return String.valueOf((long)value);
+		return String.valueOf(value);
+	}
+
 
-		return input;
+
+	// Lay out the stats of a ship as a short card.
+	private static String formatStats(String name, AttributeTable.Loadout s){
+		StringBuilder sb = new StringBuilder(name);
+		if(!s.category.isEmpty())
+			sb.append(" (" + s.category + ")");
+		sb.append(String.format("\nmass: %.0f tons, shields: %.0f, hull: %.0f", s.mass, s.shields, s.hull));
+		sb.append(String.format("\nmax speed: %.0f, acceleration: %.0f, turning: %.0f", s.maxSpeed, s.acceleration, s.turnRate));
+		sb.append(String.format("\nenergy / s: %+.0f idle, %+.0f moving, %+.0f firing",
+				s.idleEnergy, s.idleEnergy - s.movingEnergy, s.idleEnergy - s.movingEnergy - s.firingEnergy));
+		sb.append(String.format("\nheat / s: %+.0f idle, %+.0f moving, %+.0f firing",
+				s.idleHeat, s.idleHeat + s.movingHeat, s.idleHeat + s.movingHeat + s.firingHeat));
+		sb.append(String.format("\nshield damage / s: %.0f, hull damage / s: %.0f", s.shieldDps, s.hullDps));
+		sb.append(String.format("\nfree space: %.0f outfit, %.0f weapon, %.0f engine", s.outfitSpace, s.weaponCapacity, s.engineCapacity));
+		if(s.unknownOutfits > 0)
+			sb.append("\n(" + s.unknownOutfits + " outfit(s) not found in the data are left out)");
+		return sb.toString();
 	}
 
 
+
 	// Returns a String with one Government using the Swizzle swizzle in every line, starting with a newline
 	public String getGovernmentsBySwizzle(int swizzle) {
-		Scanner sc = new Scanner(data);
-		String formerLine = "";
-		ArrayList<String> results = new ArrayList<>();
-		while(sc.hasNext()){
-			String line = sc.nextLine();
-			if(line.contains("swizzle " + swizzle) && formerLine.contains("government"))
-				results.add(formerLine);
-			formerLine = line;
-		}
+		return bulletList(index().getDerived(SwizzleIndex.class, SwizzleIndex::new).getGovernments(swizzle), 20);
+	}
+
+
+
+	// Returns the given names as lines starting with a bullet, each line
+	// starting with a newline. At most 'limit' names are listed.
+	private static String bulletList(List<String> names, int limit){
 		StringBuilder sb = new StringBuilder("");
-		for(String s : results)
-			sb.append("\n\u2022 " + s.replace("government \"", "").replace("\"", "").trim());
+		for(int i = 0; i < names.size() && i < limit; ++i)
+			sb.append("\n\u2022 " + names.get(i));
+		if(names.size() > limit)
+			sb.append("\n\u2022 ... and " + (names.size() - limit) + " more");
 		return sb.toString();
 	}
 
 
 
 	// Generate a quote from the named person, using their built-in phrases.
-	// Phrases can be nested!! TODO: Move choice instantiation into readData.
+	// Phrases can be nested!! Returns nullstring if they have nothing to say.
 	public String generateQuote(String person){
-		String personData = lookupData(person);
-		boolean hasPhrase = personData.indexOf("phrase\n") > -1 || personData.indexOf("phrase ") > -1;
-		if(!hasPhrase)
-			return "";
-		int tabDepth = Helper.GetIndentLevel(personData, "phrase");
-		LinkedList<String> strKeys = new LinkedList<String>();
-
-		// Outermost 'phrase'
-		StringBuilder key = new StringBuilder();
-		for(int i = 0; i < tabDepth; ++i)
-			key.append("\t");
-		key.append("phrase");
-		if(++tabDepth == 1)
-			key.append(" ");
-		else
-			key.append("\n");
-		strKeys.add(key.toString());
-
-		// 'word' demarcator.
-		key = new StringBuilder();
-		for(int i = 0; i < tabDepth; ++i)
-			key.append("\t");
-		key.append("word");
-		key.append("\n");
-		strKeys.add(key.toString());
-
-		// Nested phrase reference.
-		++tabDepth;
-		key = new StringBuilder();
-		for(int i = 0; i < tabDepth; ++i)
-			key.append("\t");
-		key.append("phrase");
-		key.append("\n");
-		strKeys.add(key.toString());
-
-		// iterate personData using the strKeys with indexOf
-		// and then passing the substring to MakeChoices
-
-		return Integer.toString(tabDepth);
+		String quote = index().getDerived(PhraseGrammar.class, PhraseGrammar::new).getQuote(person);
+		return quote == null ? "" : quote;
 	}
 }
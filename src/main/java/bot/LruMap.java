@@ -0,0 +1,35 @@
+package bot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A map that holds at most a given number of entries, forgetting the least
+// recently used one to make room for another. Reading an entry counts as
+// using it.
+public class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+	private static final long serialVersionUID = 1L;
+	private final int max;
+
+
+
+	public LruMap(int max){
+		super(16, 0.75f, true);
+		this.max = max;
+	}
+
+
+
+	// Returns an LRU map that may be used from several threads at once.
+	public static <K, V> Map<K, V> synchronizedOf(int max){
+		return Collections.synchronizedMap(new LruMap<K, V>(max));
+	}
+
+
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest){
+		return size() > max;
+	}
+}
@@ -0,0 +1,234 @@
+package bot;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+// Draws part of the galaxy map: the systems in their government's colours,
+// the hyperspace links between them, and (when zoomed in far enough) their
+// names. The map is drawn in square tiles at a few fixed zoom levels, and a
+// view is put together from the tiles that overlap it.
+//
+// Tiles are kept from one view to the next, and from one version of the data
+// to the next: each is stored with a hash of everything drawn on it, and is
+// drawn again only if the systems it shows have changed. So after a data
+// update, only the tiles around the systems that changed are redrawn.
+public class MapRenderer {
+
+	// The width and height of a view, in pixels.
+	public static final int SIZE = 768;
+	public static final double MIN_RADIUS = 50.;
+	private static final int TILE = 256;
+	// Map units per pixel at each zoom level.
+	private static final double[] ZOOMS = {.5, 1., 2., 4., 8., 16.};
+	// Names are only drawn at zoom levels with at most this many units per pixel.
+	private static final double LABEL_ZOOM = 2.;
+	// How far a name extends past its system, in pixels.
+	private static final int LABEL_WIDTH = 160;
+	private static final int MAX_TILES = 64;
+	private static final int WORKERS = 2;
+	private static final int QUEUE = 8;
+
+	private static final Color BACKGROUND = new Color(0x0a0a14);
+	private static final Color LINK = new Color(0x40486a);
+	private static final Color LABEL = new Color(0xc0c0c0);
+	private static final Color HIGHLIGHT = new Color(0xffffff);
+	private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+
+	private static final class Tile {
+		final long hash;
+		final BufferedImage image;
+
+		Tile(long hash, BufferedImage image){
+			this.hash = hash;
+			this.image = image;
+		}
+	}
+
+	// By zoom level and tile position, least recently used first.
+	private static final Map<String, Tile> tiles = LruMap.synchronizedOf(MAX_TILES);
+	private static final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(QUEUE), r -> {
+				Thread t = new Thread(r, "map-render");
+				t.setDaemon(true);
+				return t;
+			});
+
+
+
+	/**
+	 * Draw the map around a system.
+	 * @param  SystemGraph graph         The systems to draw.
+	 * @param  int         center        The system to center the view on, and
+	 *                                   mark; or -1 to show the whole map.
+	 * @param  double      radius        How far the view reaches from the
+	 *                                   center, in map units.
+	 * @return             The view as a PNG image, drawn on one of the
+	 *                     rendering threads.
+	 * @throws RejectedExecutionException If too many views are waiting to
+	 *                                    be drawn already.
+	 */
+	public static CompletableFuture<byte[]> render(SystemGraph graph, int center, double radius){
+		return CompletableFuture.supplyAsync(() -> {
+			double x = 0.;
+			double y = 0.;
+			double r = radius;
+			if(center >= 0){
+				x = graph.getX(center);
+				y = graph.getY(center);
+			}
+			else if(graph.size() > 0){
+				// Fit the whole map.
+				int[] all = graph.findInArea(-Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+				double minX = Double.MAX_VALUE;
+				double minY = Double.MAX_VALUE;
+				double maxX = -Double.MAX_VALUE;
+				double maxY = -Double.MAX_VALUE;
+				for(int system : all){
+					minX = Math.min(minX, graph.getX(system));
+					minY = Math.min(minY, graph.getY(system));
+					maxX = Math.max(maxX, graph.getX(system));
+					maxY = Math.max(maxY, graph.getY(system));
+				}
+				x = (minX + maxX) / 2.;
+				y = (minY + maxY) / 2.;
+				r = Math.max(maxX - minX, maxY - minY) / 2. + MIN_RADIUS;
+			}
+			return toPNG(draw(graph, x, y, Math.max(MIN_RADIUS, r), center));
+		}, workers);
+	}
+
+
+
+	// Put a view together from the tiles that overlap it.
+	private static BufferedImage draw(SystemGraph graph, double centerX, double centerY, double radius, int center){
+		// The most zoomed in level that fits the whole radius.
+		int zoom = 0;
+		while(zoom < ZOOMS.length - 1 && ZOOMS[zoom] * SIZE < 2. * radius)
+			++zoom;
+		double scale = ZOOMS[zoom];
+		int left = (int)Math.floor(centerX / scale) - SIZE / 2;
+		int top = (int)Math.floor(centerY / scale) - SIZE / 2;
+
+		BufferedImage view = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = view.createGraphics();
+		for(int ty = Math.floorDiv(top, TILE); ty <= Math.floorDiv(top + SIZE - 1, TILE); ++ty)
+			for(int tx = Math.floorDiv(left, TILE); tx <= Math.floorDiv(left + SIZE - 1, TILE); ++tx)
+				g.drawImage(getTile(graph, zoom, tx, ty), tx * TILE - left, ty * TILE - top, null);
+
+		if(center >= 0){
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setColor(HIGHLIGHT);
+			g.setStroke(new BasicStroke(2f));
+			double px = graph.getX(center) / scale - left;
+			double py = graph.getY(center) / scale - top;
+			g.draw(new Ellipse2D.Double(px - 9., py - 9., 18., 18.));
+		}
+		g.dispose();
+		return view;
+	}
+
+
+
+	// Returns the tile at the given position, drawing it unless the tile that
+	// was drawn there before shows exactly the same systems.
+	private static BufferedImage getTile(SystemGraph graph, int zoom, int tx, int ty){
+		double scale = ZOOMS[zoom];
+		// Anything drawn on the tile belongs to a system in this area: links
+		// are no longer than the longest link, and names no wider than a label.
+		double margin = Math.max(graph.getLongestLink(), (LABEL_WIDTH + 10) * scale);
+		int[] systems = graph.findInArea(tx * TILE * scale - margin, ty * TILE * scale - margin,
+				(tx + 1) * TILE * scale + margin, (ty + 1) * TILE * scale + margin);
+
+		long hash = 0;
+		for(int system : systems)
+			hash += hash(graph, system);
+		String key = zoom + ":" + tx + ":" + ty;
+		Tile tile = tiles.get(key);
+		if(tile != null && tile.hash == hash)
+			return tile.image;
+
+		BufferedImage image = new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(BACKGROUND);
+		g.fillRect(0, 0, TILE, TILE);
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		double left = tx * TILE;
+		double top = ty * TILE;
+
+		g.setColor(LINK);
+		g.setStroke(new BasicStroke(1.5f));
+		for(int system : systems)
+			for(int other : graph.getLinks(system))
+				g.draw(new Line2D.Double(graph.getX(system) / scale - left, graph.getY(system) / scale - top,
+						graph.getX(other) / scale - left, graph.getY(other) / scale - top));
+
+		double dot = scale <= LABEL_ZOOM ? 4. : scale <= 4. ? 3. : 2.;
+		for(int system : systems){
+			g.setColor(new Color(graph.getColor(system)));
+			g.fill(new Ellipse2D.Double(graph.getX(system) / scale - left - dot, graph.getY(system) / scale - top - dot, 2. * dot, 2. * dot));
+		}
+		if(scale <= LABEL_ZOOM){
+			g.setColor(LABEL);
+			g.setFont(FONT);
+			for(int system : systems)
+				g.drawString(graph.getEntry(system).getName(), (float)(graph.getX(system) / scale - left + 7.), (float)(graph.getY(system) / scale - top + 4.));
+		}
+		g.dispose();
+		tiles.put(key, new Tile(hash, image));
+		return image;
+	}
+
+
+
+	// Returns a hash of everything that is drawn for the given system. The
+	// hashes of a tile's systems are added up, so their order does not matter.
+	private static long hash(SystemGraph graph, int system){
+		long h = 0xcbf29ce484222325L;
+		String name = graph.getEntry(system).getName();
+		for(int i = 0; i < name.length(); ++i)
+			h = (h ^ name.charAt(i)) * 0x100000001b3L;
+		h = (h ^ Double.doubleToLongBits(graph.getX(system))) * 0x100000001b3L;
+		h = (h ^ Double.doubleToLongBits(graph.getY(system))) * 0x100000001b3L;
+		h = (h ^ graph.getColor(system)) * 0x100000001b3L;
+		for(int other : graph.getLinks(system)){
+			h = (h ^ Double.doubleToLongBits(graph.getX(other))) * 0x100000001b3L;
+			h = (h ^ Double.doubleToLongBits(graph.getY(other))) * 0x100000001b3L;
+		}
+		// Mix the bits, so that sums of similar hashes do not cancel out.
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+
+
+	private static byte[] toPNG(BufferedImage image){
+		try{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+		catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+}
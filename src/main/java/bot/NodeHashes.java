@@ -0,0 +1,37 @@
+package bot;
+
+import java.util.HashMap;
+
+// The content hash of every node of an index, and the first node with each
+// hash, so that nodes with the same text can be matched up between versions
+// of the data without comparing any text.
+public class NodeHashes {
+
+	// By node id.
+	private final long[] hashes;
+	private final HashMap<Long, DataIndex.Entry> byHash;
+
+
+
+	public NodeHashes(DataIndex index){
+		hashes = new long[index.size()];
+		byHash = new HashMap<>(index.size() * 2);
+		for(DataIndex.Entry entry : index.getEntries()){
+			hashes[entry.id] = index.getContentHash(entry);
+			byHash.putIfAbsent(hashes[entry.id], entry);
+		}
+	}
+
+
+
+	public long getHash(DataIndex.Entry entry){
+		return hashes[entry.id];
+	}
+
+
+
+	// Returns the first node with the given content hash, or null.
+	public DataIndex.Entry find(long hash){
+		return byHash.get(hash);
+	}
+}
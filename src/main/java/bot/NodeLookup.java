@@ -0,0 +1,140 @@
+package bot;
+
+// Finds the node that a lookup request names: exactly, with its data type or
+// capitalization guessed, in ship variant form, by a near spelling, or by the
+// start of its name. How each request was resolved is remembered in the
+// data's LookupCache. Nothing here touches the network or the disk.
+public class NodeLookup {
+
+	// These datatypes are automatically checked for capitalization and
+	// quotation errors during lookups.
+	static final String[] dataTypes = {
+		"ship",
+		"outfit",
+		"mission",
+		"person",
+		"planet",
+		"system",
+		"shipyard",
+		"outfitter",
+		"effect",
+		"scene",
+		"fleet",
+		"event",
+		"government",
+		"phrase"
+	};
+
+
+
+	// Returns the node the request names in the given data, or null if there
+	// is none.
+	public static DataIndex.Entry find(DataIndex index, String request){
+		String lookup = LookupCache.normalize(request);
+		return cache(index).get(lookup).getNode(() -> resolve(index, lookup));
+	}
+
+
+
+	// If the request names a ship variant, such as 'ship "Falcon" "Falcon
+	// (Plasma)"', returns the ship it is a variant of. Returns null otherwise.
+	public static DataIndex.Entry findBaseModel(DataIndex index, String request){
+		DataIndex.Entry node = find(index, request);
+		if(node == null || !node.type.equals("ship"))
+			return null;
+		DataNode line = DataNode.parse(node.getLine());
+		if(line == null || line.size() != 3)
+			return null;
+		return index.findNamed("ship", line.getToken(1));
+	}
+
+
+
+	public static boolean isDataType(String word){
+		for(String str : dataTypes)
+			if(str.equals(word))
+				return true;
+		return false;
+	}
+
+
+
+	// Returns the remembered results of recent requests against the given data.
+	static LookupCache cache(DataIndex index){
+		return index.getDerived(LookupCache.class, ignored -> new LookupCache());
+	}
+
+
+
+	// Find the node a request names. Returns null if there is none.
+	private static DataIndex.Entry resolve(DataIndex index, String request){
+		// Remove any leading or trailing spaces.
+		String lookup = request.trim();
+		// The first word of the lookup may be a supported dataType.
+		String category = "";
+		int space = lookup.indexOf(' ');
+		if(space > 0 && isDataType(lookup.substring(0, space).toLowerCase())){
+			category = lookup.substring(0, space).toLowerCase();
+			lookup = lookup.substring(space + 1);
+		}
+		DataIndex.Entry node = checkLookup(index, category, lookup, true);
+		// The first word may be part of the name after all, as in "Event
+		// Horizon"; so the whole request is tried too before guessing.
+		if(node == null && !category.isEmpty())
+			node = checkLookup(index, "", request.trim(), true);
+		// Capitalization may still be off, e.g. "Ka'Het" or "MK II"; or the
+		// lookup may be the start of a name.
+		if(node == null)
+			node = findClose(index, category, lookup);
+		if(node == null && !category.isEmpty())
+			node = findClose(index, "", request.trim());
+		return node;
+	}
+
+
+
+	// Find the node whose name is spelled most like the lookup, or else the
+	// best node whose name starts with it. Returns null if there is neither.
+	private static DataIndex.Entry findClose(DataIndex index, String category, String lookup){
+		DataIndex.Entry node = index.getDerived(FuzzyIndex.class, FuzzyIndex::new).find(lookup, category);
+		if(node == null)
+			node = index.getDerived(PrefixIndex.class, PrefixIndex::new).best(lookup, category);
+		return node;
+	}
+
+
+
+	// Queries the index of loaded datafiles for special Endless Sky keywords.
+	// If helper is 'true', will try both as-passed 'lookup', and with
+	// enforced word capitalization.
+	// If the first word of a lookup was a supported category, it is not
+	// subjected to capitalization and quoting.
+	// Returns null if no node matches.
+	private static DataIndex.Entry checkLookup(DataIndex index, String dataType, String lookup, boolean helper){
+		// The lookup may be exact:
+		DataIndex.Entry node = index.find(lookup);
+		if(node != null)
+			return node;
+
+		// A supported dataType limiter may have been used.
+		if(dataType.length() > 0)
+			node = index.findNamed(dataType, lookup);
+		else{
+			for(String str : dataTypes){
+				node = index.findNamed(str, lookup);
+				if(node != null)
+					break;
+			}
+		}
+		if(node != null)
+			return node;
+
+		// The input may not have been capitalized correctly.
+		if(helper){
+			lookup = Helper.CapitalizeWords(lookup);
+			return checkLookup(index, dataType, lookup, false);
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,155 @@
+package bot;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Every "phrase" in the data, and the phrases that "person" nodes speak,
+// compiled once into a graph of weighted choices. References to other
+// phrases are resolved while compiling, so generating text is only a walk
+// over arrays.
+public class PhraseGrammar {
+
+	// Guards against phrases that (directly or not) contain themselves.
+	private static final int MAX_DEPTH = 20;
+
+	// A phrase is a sequence of parts; its text is the text of each part in turn.
+	private static final class Phrase {
+		final Part[] parts;
+
+		Phrase(int parts){
+			this.parts = new Part[parts];
+		}
+	}
+
+	// A part picks one of its choices, either a word or another phrase.
+	private static final class Part {
+		final String[] words;
+		final Phrase[] phrases;
+		// Running total of the choice weights, for picking by weight.
+		final int[] weights;
+
+		Part(String[] words, Phrase[] phrases, int[] weights){
+			this.words = words;
+			this.phrases = phrases;
+			this.weights = weights;
+		}
+	}
+
+	private final HashMap<String, Phrase> phrases = new HashMap<>();
+	private final HashMap<String, Phrase> persons = new HashMap<>();
+
+
+
+	public PhraseGrammar(DataIndex index){
+		// Create every named phrase first, so references can be resolved no
+		// matter in which order the phrases were defined.
+		HashMap<Phrase, DataNode> toCompile = new HashMap<>();
+		for(DataIndex.Entry entry : index.getEntries("phrase")){
+			String name = entry.getName();
+			if(name.isEmpty() || phrases.containsKey(name.toLowerCase()))
+				continue;
+			DataNode node = DataNode.parse(index.getText(entry));
+			if(node == null)
+				continue;
+			Phrase phrase = new Phrase(node.getChildren().size());
+			phrases.put(name.toLowerCase(), phrase);
+			toCompile.put(phrase, node);
+		}
+		for(Map.Entry<Phrase, DataNode> e : toCompile.entrySet())
+			compile(e.getKey(), e.getValue());
+
+		for(DataIndex.Entry entry : index.getEntries("person")){
+			String name = entry.getName().toLowerCase();
+			DataNode node = DataNode.parse(index.getText(entry));
+			DataNode spoken = node == null ? null : node.getChild("phrase");
+			if(spoken == null || persons.containsKey(name))
+				continue;
+			// A person may name a phrase, or define one in place.
+			Phrase phrase;
+			if(spoken.size() > 1)
+				phrase = phrases.get(spoken.getToken(1).toLowerCase());
+			else{
+				phrase = new Phrase(spoken.getChildren().size());
+				compile(phrase, spoken);
+			}
+			if(phrase != null)
+				persons.put(name, phrase);
+		}
+	}
+
+
+
+	// Generate text from the named phrase. Returns null if there is no such phrase.
+	public String getPhrase(String name){
+		return generate(phrases.get(Helper.Unquote(name).toLowerCase()));
+	}
+
+
+
+	// Generate something the named person would say. Returns null if there
+	// is no such person, or they have nothing to say.
+	public String getQuote(String person){
+		return generate(persons.get(Helper.Unquote(person).toLowerCase()));
+	}
+
+
+
+	private static String generate(Phrase phrase){
+		if(phrase == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		append(phrase, sb, ThreadLocalRandom.current(), 0);
+		return sb.toString();
+	}
+
+
+
+	private static void append(Phrase phrase, StringBuilder sb, ThreadLocalRandom random, int depth){
+		if(depth > MAX_DEPTH)
+			return;
+		for(Part part : phrase.parts){
+			if(part == null || part.weights.length == 0)
+				continue;
+			int total = part.weights[part.weights.length - 1];
+			int pick = random.nextInt(total);
+			int i = 0;
+			while(part.weights[i] <= pick)
+				++i;
+			if(part.words != null)
+				sb.append(part.words[i]);
+			else if(part.phrases[i] != null)
+				append(part.phrases[i], sb, random, depth + 1);
+		}
+	}
+
+
+
+	// Fill in the parts of the given phrase from its data node.
+	private void compile(Phrase phrase, DataNode node){
+		List<DataNode> children = node.getChildren();
+		for(int p = 0; p < children.size(); ++p){
+			DataNode child = children.get(p);
+			boolean isWord = child.getToken(0).equals("word");
+			if(!isWord && !child.getToken(0).equals("phrase"))
+				continue;
+
+			List<DataNode> choices = child.getChildren();
+			String[] words = isWord ? new String[choices.size()] : null;
+			Phrase[] references = isWord ? null : new Phrase[choices.size()];
+			int[] weights = new int[choices.size()];
+			int total = 0;
+			for(int i = 0; i < choices.size(); ++i){
+				DataNode choice = choices.get(i);
+				if(isWord)
+					words[i] = choice.getToken(0);
+				else
+					references[i] = phrases.get(choice.getToken(0).toLowerCase());
+				total += choice.hasValue(1) ? Math.max(1, (int)choice.getValue(1)) : 1;
+				weights[i] = total;
+			}
+			phrase.parts[p] = new Part(words, references, weights);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package bot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+// A plugin that a user uploaded as a zip file. Its data files are laid over
+// the base data, so it can be looked up like a version of the data, and each
+// of its nodes is sorted by whether it adds to, redefines or repeats the base.
+// The zip is saved to a temporary file as it downloads, and only its data
+// files are decompressed; reading stops as soon as any limit is passed.
+public class Plugin {
+
+	// The most zip file that is read, compressed.
+	public static final int MAX_UPLOAD = 8 << 20;
+	// The most data file text that is decompressed, in all.
+	public static final int MAX_TEXT = 16 << 20;
+	public static final int MAX_ENTRIES = 4000;
+	public static final long TIME_LIMIT_MS = TimeUnit.SECONDS.toMillis(20);
+
+	public final String name;
+	// The plugin's data over the base data.
+	public final DataIndex index;
+	public final List<String> files;
+	// The plugin's nodes, by what they do to the base.
+	public final List<DataIndex.Entry> added = new ArrayList<>();
+	public final List<DataIndex.Entry> overridden = new ArrayList<>();
+	public final List<DataIndex.Entry> unchanged = new ArrayList<>();
+
+
+
+	private Plugin(String name, DataIndex index, List<String> files, DataIndex base){
+		this.name = name;
+		this.index = index;
+		this.files = Collections.unmodifiableList(files);
+		// The plugin's own nodes come before those of the base.
+		int own = index.size() - base.size();
+		HashSet<String> seen = new HashSet<>();
+		for(DataIndex.Entry entry : index.getEntries().subList(0, own)){
+			if(!seen.add(entry.getLine()))
+				continue;
+			if(base.find(entry.getLine()) == null)
+				added.add(entry);
+			else if(entry.shared)
+				unchanged.add(entry);
+			else
+				overridden.add(entry);
+		}
+	}
+
+
+
+	/**
+	 * Read a plugin from a zip file. Every file ending in ".txt" inside a
+	 * "data" folder is read as a data file, in order of their paths, as the
+	 * game does; everything else is skipped.
+	 * @param  InputStream zip           The zip file. It is not closed.
+	 * @param  String      name          The name of the upload.
+	 * @param  DataIndex   base          The data to lay the plugin over.
+	 * @return             The plugin.
+	 * @throws IOException If the zip cannot be read, has no data files, or
+	 *                     passes one of the limits; the message says which.
+	 */
+	public static Plugin read(InputStream zip, String name, DataIndex base) throws IOException {
+		long deadline = System.currentTimeMillis() + TIME_LIMIT_MS;
+		Path file = Files.createTempFile("plugin", ".zip");
+		try{
+			Files.copy(new LimitedInputStream(zip, MAX_UPLOAD), file, StandardCopyOption.REPLACE_EXISTING);
+			try(ZipFile archive = new ZipFile(file.toFile())){
+				if(archive.size() > MAX_ENTRIES)
+					throw new IOException("The zip has more than " + MAX_ENTRIES + " files.");
+				// The zip's directory lists every file, so only the data files
+				// are ever decompressed.
+				TreeMap<String, ZipEntry> data = new TreeMap<>();
+				for(ZipEntry entry : Collections.list(archive.entries())){
+					String path = entry.getName().replace('\\', '/');
+					if(!entry.isDirectory() && path.endsWith(".txt") && (path.startsWith("data/") || path.contains("/data/")))
+						data.put(path, entry);
+				}
+				if(data.isEmpty())
+					throw new IOException("The zip has no data files (data/*.txt).");
+
+				// Count what is actually decompressed, not what the zip claims.
+				TreeMap<String, String> texts = new TreeMap<>();
+				long kept = 0;
+				byte[] buffer = new byte[1 << 16];
+				for(Map.Entry<String, ZipEntry> entry : data.entrySet()){
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					try(InputStream in = archive.getInputStream(entry.getValue())){
+						for(int read; (read = in.read(buffer)) > 0; ){
+							if(System.currentTimeMillis() > deadline)
+								throw new IOException("The zip took too long to read.");
+							kept += read;
+							if(kept > MAX_TEXT)
+								throw new IOException("The data files hold more than " + (MAX_TEXT >> 20) + " MB of text.");
+							out.write(buffer, 0, read);
+						}
+					}
+					// Files saved on Windows end their lines in "\r\n"; without the
+					// '\r' a node that repeats the base is seen to repeat it.
+					texts.put(entry.getKey(), new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n"));
+				}
+
+				List<String> names = new ArrayList<>(texts.keySet());
+				DataIndex index = DataIndex.buildOverlay(names, new ArrayList<>(texts.values()), base);
+				return new Plugin(name, index, names, base);
+			}
+		}
+		catch(ZipException e){
+			throw new IOException("It is not a valid zip file.");
+		}
+		finally{
+			Files.deleteIfExists(file);
+		}
+	}
+
+
+
+	// Fails once more than the given number of bytes have been read, so that
+	// an upload that is larger than it claims is not read to the end.
+	private static final class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit){
+			super(in);
+			remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0)
+				count(read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		private void count(long bytes) throws IOException {
+			remaining -= bytes;
+			if(remaining < 0)
+				throw new IOException("The zip is larger than " + (MAX_UPLOAD >> 20) + " MB.");
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// Answers prefix queries over the names of every node that can be looked up.
+// For each data type the lowercase names are kept in one sorted array, so the
+// names starting with a prefix are a contiguous run found by binary search.
+public class PrefixIndex {
+
+	// The shortest prefix that lookups will complete on their own.
+	public static final int MIN_PREFIX = 3;
+
+	private static class Names {
+		final String[] names;
+		final DataIndex.Entry[] nodes;
+
+		Names(String[] names, DataIndex.Entry[] nodes){
+			this.names = names;
+			this.nodes = nodes;
+		}
+	}
+
+	private final HashMap<String, Names> byType = new HashMap<>();
+	private final List<String> typeOrder;
+
+
+
+	public PrefixIndex(DataIndex index){
+		typeOrder = Arrays.asList(NodeLookup.dataTypes);
+		for(String type : NodeLookup.dataTypes){
+			List<DataIndex.Entry> ofType = new ArrayList<>();
+			for(DataIndex.Entry entry : index.getEntries(type))
+				if(!entry.getName().isEmpty())
+					ofType.add(entry);
+			ofType.sort(Comparator.comparing((DataIndex.Entry e) -> e.getName().toLowerCase()).thenComparingInt(e -> e.id));
+
+			String[] names = new String[ofType.size()];
+			DataIndex.Entry[] nodes = new DataIndex.Entry[ofType.size()];
+			for(int i = 0; i < names.length; ++i){
+				nodes[i] = ofType.get(i);
+				names[i] = nodes[i].getName().toLowerCase();
+			}
+			byType.put(type, new Names(names, nodes));
+		}
+	}
+
+
+
+	/**
+	 * List the nodes whose names begin with the given prefix. Shorter names
+	 * come first, then names of higher-priority types, then alphabetical order,
+	 * so the same prefix always gives the same answer.
+	 * @param  String prefix        The start of a name. Case and quotes are ignored.
+	 * @param  String type          Only nodes of this type are listed, unless nullstring.
+	 * @param  int    limit         The most completions to return.
+	 * @return        The completions, best first.
+	 */
+	public List<DataIndex.Entry> complete(String prefix, String type, int limit){
+		String query = prefix.replace("\"", "").replace("`", "").trim().toLowerCase();
+		List<DataIndex.Entry> found = new ArrayList<>();
+		if(query.isEmpty() || limit < 1)
+			return found;
+
+		for(String t : NodeLookup.dataTypes){
+			if(!type.isEmpty() && !type.equals(t))
+				continue;
+			Names names = byType.get(t);
+			for(int i = lowerBound(names.names, query); i < names.names.length && names.names[i].startsWith(query); ++i)
+				found.add(names.nodes[i]);
+		}
+		found.sort(Comparator.comparingInt((DataIndex.Entry e) -> e.getName().length())
+				.thenComparingInt(e -> typeOrder.indexOf(e.type))
+				.thenComparing(e -> e.getName().toLowerCase())
+				.thenComparingInt(e -> e.id));
+		return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+	}
+
+
+
+	// Returns the node that a partial name most likely refers to: the best
+	// completion, as ordered by complete(). Returns null if the prefix is too
+	// short or nothing starts with it.
+	public DataIndex.Entry best(String prefix, String type){
+		if(prefix.replace("\"", "").trim().length() < MIN_PREFIX)
+			return null;
+		List<DataIndex.Entry> found = complete(prefix, type, 1);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+
+
+	// Returns the first index whose name is not less than the key.
+	private static int lowerBound(String[] names, String key){
+		int low = 0;
+		int high = names.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(names[mid].compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
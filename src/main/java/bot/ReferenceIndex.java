@@ -0,0 +1,185 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// For every node that the data refers to by name, the nodes that refer to it:
+// the outfitters that sell an outfit, the planets that have an outfitter, the
+// systems a planet or fleet is in, the fleets that fly a ship, and the
+// missions, events and persons that mention any of these. Built once from the
+// loaded data, so finding the references to a node is a hash lookup.
+public class ReferenceIndex {
+
+	// In missions, events and persons, these keys name a node of the same
+	// type, e.g. 'ship "Bactrian" "Bob's Bactrian"' or 'fleet "Large Pirates"'.
+	private static final String[] MENTIONS = {"ship", "outfit", "fleet", "planet", "system", "government"};
+	// And these name a planet.
+	private static final String[] PLANET_MENTIONS = {"source", "destination", "stopover"};
+
+	// By "type\tname" of the node referred to.
+	private final HashMap<String, List<DataIndex.Entry>> referrers = new HashMap<>();
+	// By variant name: the name of the ship it is a variant of.
+	private final HashMap<String, String> baseModels = new HashMap<>();
+
+
+
+	public ReferenceIndex(DataIndex index){
+		for(DataIndex.Entry entry : index.getEntries("ship")){
+			DataNode node = DataNode.parse(index.getText(entry));
+			if(node != null && node.size() > 2)
+				baseModels.putIfAbsent(node.getToken(2), node.getToken(1));
+		}
+
+		for(DataIndex.Entry entry : index.getEntries()){
+			if(!isReferrer(entry.type))
+				continue;
+			DataNode node = DataNode.parse(index.getText(entry));
+			if(node == null)
+				continue;
+			HashSet<String> added = new HashSet<>();
+			switch(entry.type){
+				case "outfitter":
+					for(DataNode child : node.getChildren())
+						add(entry, "outfit", child.getToken(0), added);
+					break;
+				case "shipyard":
+					for(DataNode child : node.getChildren())
+						add(entry, "ship", child.getToken(0), added);
+					break;
+				case "planet":
+					for(DataNode child : node.getChildren())
+						if(child.getToken(0).equals("outfitter") || child.getToken(0).equals("shipyard"))
+							add(entry, child.getToken(0), child.getToken(1), added);
+					break;
+				case "system":
+					addSystem(entry, node, added);
+					break;
+				case "fleet":
+					for(DataNode child : node.getChildren()){
+						if(child.getToken(0).equals("government"))
+							add(entry, "government", child.getToken(1), added);
+						else if(child.getToken(0).equals("variant"))
+							for(DataNode ship : child.getChildren())
+								add(entry, "ship", ship.getToken(0), added);
+					}
+					break;
+				default:
+					addMentions(entry, node, added);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Find the nodes that refer to the given node by name.
+	 * @param  String type          The type of the node, e.g. "outfit".
+	 * @param  String name          The name of the node.
+	 * @return        The nodes that refer to it, in the order they were
+	 *                defined. References to the variants of a ship count
+	 *                as references to the ship.
+	 */
+	public List<DataIndex.Entry> getReferrers(String type, String name){
+		List<DataIndex.Entry> list = referrers.get(type + "\t" + name);
+		return list == null ? Collections.<DataIndex.Entry>emptyList() : Collections.unmodifiableList(list);
+	}
+
+
+
+	// Returns the nodes of the given type that refer to the given node.
+	public List<DataIndex.Entry> getReferrers(String type, String name, String referrerType){
+		List<DataIndex.Entry> result = new ArrayList<>();
+		for(DataIndex.Entry entry : getReferrers(type, name))
+			if(entry.type.equals(referrerType))
+				result.add(entry);
+		return result;
+	}
+
+
+
+	private static boolean isReferrer(String type){
+		switch(type){
+			case "outfitter":
+			case "shipyard":
+			case "planet":
+			case "system":
+			case "fleet":
+			case "mission":
+			case "event":
+			case "person":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+
+
+	// Systems refer to their links, their fleets, and the planets (and moons
+	// of planets) in them.
+	private void addSystem(DataIndex.Entry entry, DataNode node, HashSet<String> added){
+		for(DataNode child : node.getChildren()){
+			String key = child.getToken(0);
+			if(key.equals("link"))
+				add(entry, "system", child.getToken(1), added);
+			else if(key.equals("fleet"))
+				add(entry, "fleet", child.getToken(1), added);
+			else if(key.equals("government"))
+				add(entry, "government", child.getToken(1), added);
+			else if(key.equals("object"))
+				addObjects(entry, child, added);
+		}
+	}
+
+
+
+	private void addObjects(DataIndex.Entry entry, DataNode object, HashSet<String> added){
+		if(object.size() > 1)
+			add(entry, "planet", object.getToken(1), added);
+		for(DataNode child : object.getChildren())
+			if(child.getToken(0).equals("object"))
+				addObjects(entry, child, added);
+	}
+
+
+
+	// Walk the whole node, recording every line that names another node.
+	private void addMentions(DataIndex.Entry entry, DataNode node, HashSet<String> added){
+		for(DataNode child : node.getChildren()){
+			String key = child.getToken(0);
+			if(child.size() > 1){
+				for(String type : MENTIONS)
+					if(key.equals(type))
+						add(entry, type, child.getToken(1), added);
+				// A source or destination with children is a filter, not a planet.
+				if(!child.hasChildren())
+					for(String mention : PLANET_MENTIONS)
+						if(key.equals(mention))
+							add(entry, "planet", child.getToken(1), added);
+			}
+			addMentions(entry, child, added);
+		}
+	}
+
+
+
+	private void add(DataIndex.Entry referrer, String type, String name, HashSet<String> added){
+		if(name.isEmpty())
+			return;
+		String key = type + "\t" + name;
+		if(added.add(key)){
+			List<DataIndex.Entry> list = referrers.get(key);
+			if(list == null){
+				list = new ArrayList<>(2);
+				referrers.put(key, list);
+			}
+			list.add(referrer);
+		}
+		// The base model of a variant is referred to as well.
+		if(type.equals("ship") && baseModels.containsKey(name))
+			add(referrer, type, baseModels.get(name), added);
+	}
+}
@@ -0,0 +1,92 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Maps each swizzle to the governments that use it, the fleets flown by those
+// governments, and the ships that set a swizzle of their own. Built once from
+// the loaded data, so '-swizzle' never has to read through the data itself.
+public class SwizzleIndex {
+
+	public static final int SWIZZLES = 9;
+
+	private final List<List<String>> governments = new ArrayList<>(SWIZZLES);
+	private final List<List<String>> fleets = new ArrayList<>(SWIZZLES);
+	private final List<List<String>> ships = new ArrayList<>(SWIZZLES);
+
+
+
+	public SwizzleIndex(DataIndex index){
+		for(int i = 0; i < SWIZZLES; ++i){
+			governments.add(new ArrayList<>());
+			fleets.add(new ArrayList<>());
+			ships.add(new ArrayList<>());
+		}
+
+		HashMap<String, Integer> byGovernment = new HashMap<>();
+		for(DataIndex.Entry entry : index.getEntries("government")){
+			String name = entry.getName();
+			int swizzle = findSwizzle(index.getText(entry), 1);
+			if(swizzle >= 0 && !byGovernment.containsKey(name)){
+				byGovernment.put(name, swizzle);
+				governments.get(swizzle).add(name);
+			}
+		}
+
+		// Fleets are drawn with the swizzle of their government.
+		for(DataIndex.Entry entry : index.getEntries("fleet")){
+			DataTokenizer line = new DataTokenizer(index.getText(entry));
+			while(line.next()){
+				if(line.getIndent() == 1 && line.size() > 1 && line.tokenEquals(0, "government")){
+					Integer swizzle = byGovernment.get(line.getString(1));
+					if(swizzle != null)
+						fleets.get(swizzle).add(entry.getName());
+					break;
+				}
+			}
+		}
+
+		for(DataIndex.Entry entry : index.getEntries("ship")){
+			int swizzle = findSwizzle(index.getText(entry), -1);
+			if(swizzle >= 0)
+				ships.get(swizzle).add(entry.getName());
+		}
+	}
+
+
+
+	public List<String> getGovernments(int swizzle){
+		return governments.get(swizzle);
+	}
+
+
+
+	public List<String> getFleets(int swizzle){
+		return fleets.get(swizzle);
+	}
+
+
+
+	public List<String> getShips(int swizzle){
+		return ships.get(swizzle);
+	}
+
+
+
+	// Returns the value of the first "swizzle" line at the given indent (or at
+	// any indent, if it is negative), or -1 if there is none.
+	private static int findSwizzle(String text, int indent){
+		DataTokenizer line = new DataTokenizer(text);
+		while(line.next()){
+			if(indent >= 0 && line.getIndent() != indent)
+				continue;
+			if(line.size() > 1 && line.tokenEquals(0, "swizzle")){
+				double value = line.getValue(1);
+				if(value == (int)value && value >= 0 && value < SWIZZLES)
+					return (int)value;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,475 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The map of star systems: where each system is, and which systems it has
+// hyperspace links to. Systems are numbered in the order they are defined,
+// and the links of system i are links[linkStart[i]] .. links[linkStart[i + 1]],
+// so a route search touches only int arrays. The systems in jump drive range
+// of each system are found the first time a jump drive route is asked for.
+// The shortest routes from the most recently used starting systems are kept,
+// so asking again, or for another destination, is a walk back along the route.
+// Systems are also sorted into a grid of square cells by position, so finding
+// the systems in an area or range, or the nearest system to a point, only
+// looks at the cells around it. Jump drive neighbours are found this way too.
+public class SystemGraph {
+
+	// How far a jump drive reaches from systems that do not say otherwise.
+	public static final double DEFAULT_JUMP_RANGE = 100.;
+	private static final int MAX_TREES = 128;
+	// The smallest size of a grid cell, in map units. Cells are larger for
+	// maps so wide that there would be more than GRID_SIZE cells across.
+	private static final double CELL = 100.;
+	private static final int GRID_SIZE = 1024;
+	// The colour of systems without a government, or whose government has no colour.
+	public static final int NO_COLOR = 0x808080;
+
+	private final DataIndex.Entry[] systems;
+	// By lowercase name.
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final double[] x;
+	private final double[] y;
+	private final double[] jumpRange;
+	private final boolean[] inaccessible;
+	private final String[] government;
+	// As 0xRRGGBB.
+	private final int[] color;
+	private final int[] linkStart;
+	private final int[] links;
+	private int[] jumpStart;
+	private int[] jumps;
+	private double longestLink = 0.;
+	// The systems in grid cell (column, row) are cellSystems[cellStart[c]] ..
+	// cellSystems[cellStart[c + 1]], where c = row * columns + column.
+	private final double gridX;
+	private final double gridY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	private final int[] cellStart;
+	private final int[] cellSystems;
+	// By starting system and drive: the system each system is reached from
+	// on a shortest route, or -1 if it cannot be reached.
+	private final Map<Integer, int[]> trees = LruMap.synchronizedOf(MAX_TREES);
+
+
+
+	public SystemGraph(DataIndex index){
+		// Only the first definition of each system counts, as in lookups.
+		List<DataIndex.Entry> list = new ArrayList<>();
+		for(DataIndex.Entry entry : index.getEntries("system"))
+			if(index.find(entry.getLine()) == entry && ids.putIfAbsent(entry.getName().toLowerCase(), list.size()) == null)
+				list.add(entry);
+		int count = list.size();
+		systems = list.toArray(new DataIndex.Entry[count]);
+		x = new double[count];
+		y = new double[count];
+		jumpRange = new double[count];
+		inaccessible = new boolean[count];
+		government = new String[count];
+		color = new int[count];
+		HashMap<String, Integer> colors = new HashMap<>();
+		for(DataIndex.Entry entry : index.getEntries("government")){
+			DataNode node = DataNode.parse(index.getText(entry));
+			DataNode rgb = node == null ? null : node.getChild("color");
+			if(rgb != null && rgb.size() >= 4 && rgb.hasValue(1))
+				colors.putIfAbsent(entry.getName(), toRGB(rgb.getValue(1), rgb.getValue(2), rgb.getValue(3)));
+		}
+
+		// Links go both ways, even if only one of the systems lists it.
+		int[][] adjacent = new int[count][];
+		int[] degree = new int[count];
+		for(int i = 0; i < count; ++i){
+			adjacent[i] = new int[4];
+			jumpRange[i] = DEFAULT_JUMP_RANGE;
+		}
+		for(int i = 0; i < count; ++i){
+			DataNode node = DataNode.parse(index.getText(systems[i]));
+			if(node == null)
+				continue;
+			for(DataNode child : node.getChildren()){
+				if(child.isToken(0, "pos") && child.size() >= 3){
+					x[i] = child.getValue(1);
+					y[i] = child.getValue(2);
+				}
+				else if(child.isToken(0, "jump range") && child.hasValue(1))
+					jumpRange[i] = child.getValue(1);
+				else if(child.isToken(0, "inaccessible"))
+					inaccessible[i] = true;
+				else if(child.isToken(0, "government") && child.size() > 1)
+					government[i] = child.getToken(1);
+				else if(child.isToken(0, "link") && child.size() > 1){
+					Integer other = ids.get(child.getToken(1).toLowerCase());
+					if(other != null && other != i){
+						addLink(adjacent, degree, i, other);
+						addLink(adjacent, degree, other, i);
+					}
+				}
+			}
+		}
+
+		for(int i = 0; i < count; ++i){
+			Integer rgb = government[i] == null ? null : colors.get(government[i]);
+			color[i] = rgb == null ? NO_COLOR : rgb;
+		}
+
+		linkStart = new int[count + 1];
+		for(int i = 0; i < count; ++i)
+			linkStart[i + 1] = linkStart[i] + degree[i];
+		links = new int[linkStart[count]];
+		for(int i = 0; i < count; ++i){
+			Arrays.sort(adjacent[i], 0, degree[i]);
+			System.arraycopy(adjacent[i], 0, links, linkStart[i], degree[i]);
+			for(int j = 0; j < degree[i]; ++j)
+				longestLink = Math.max(longestLink, Math.hypot(x[adjacent[i][j]] - x[i], y[adjacent[i][j]] - y[i]));
+		}
+
+		// Sort the systems into grid cells, counting each cell's systems first.
+		double minX = 0.;
+		double minY = 0.;
+		double maxX = 0.;
+		double maxY = 0.;
+		for(int i = 0; i < count; ++i){
+			minX = i == 0 ? x[i] : Math.min(minX, x[i]);
+			minY = i == 0 ? y[i] : Math.min(minY, y[i]);
+			maxX = i == 0 ? x[i] : Math.max(maxX, x[i]);
+			maxY = i == 0 ? y[i] : Math.max(maxY, y[i]);
+		}
+		gridX = minX;
+		gridY = minY;
+		cellSize = Math.max(CELL, Math.max(maxX - minX, maxY - minY) / GRID_SIZE);
+		columns = (int)((maxX - minX) / cellSize) + 1;
+		rows = (int)((maxY - minY) / cellSize) + 1;
+		cellStart = new int[columns * rows + 1];
+		for(int i = 0; i < count; ++i)
+			++cellStart[cell(i) + 1];
+		for(int c = 0; c < columns * rows; ++c)
+			cellStart[c + 1] += cellStart[c];
+		cellSystems = new int[count];
+		int[] filled = Arrays.copyOf(cellStart, columns * rows);
+		for(int i = 0; i < count; ++i)
+			cellSystems[filled[cell(i)]++] = i;
+	}
+
+
+
+	public int size(){
+		return systems.length;
+	}
+
+
+
+	// Returns the number of the system with the given name (in any case), or
+	// -1 if there is no such system.
+	public int getId(String name){
+		Integer id = ids.get(name.replace("\"", "").replace("`", "").trim().toLowerCase());
+		return id == null ? -1 : id;
+	}
+
+
+
+	public DataIndex.Entry getEntry(int id){
+		return systems[id];
+	}
+
+
+
+	public double getX(int id){
+		return x[id];
+	}
+
+
+
+	public double getY(int id){
+		return y[id];
+	}
+
+
+
+	// Returns the name of the system's government, or null if it has none.
+	public String getGovernment(int id){
+		return government[id];
+	}
+
+
+
+	// Returns the colour of the system's government, as 0xRRGGBB.
+	public int getColor(int id){
+		return color[id];
+	}
+
+
+
+	// Returns the systems the given system has hyperspace links to.
+	public int[] getLinks(int id){
+		return Arrays.copyOfRange(links, linkStart[id], linkStart[id + 1]);
+	}
+
+
+
+	// Returns the length of the longest hyperspace link.
+	public double getLongestLink(){
+		return longestLink;
+	}
+
+
+
+	/**
+	 * Find the systems in the given area of the map.
+	 * @param  double minX          The left edge of the area.
+	 * @param  double minY          The top edge of the area.
+	 * @param  double maxX          The right edge of the area.
+	 * @param  double maxY          The bottom edge of the area.
+	 * @return        The systems in the area, edges included, in no
+	 *                particular order.
+	 */
+	public int[] findInArea(double minX, double minY, double maxX, double maxY){
+		if(systems.length == 0 || maxX < minX || maxY < minY)
+			return new int[0];
+		int firstColumn = Math.max(0, (int)Math.floor((minX - gridX) / cellSize));
+		int lastColumn = Math.min(columns - 1, (int)Math.floor((maxX - gridX) / cellSize));
+		int firstRow = Math.max(0, (int)Math.floor((minY - gridY) / cellSize));
+		int lastRow = Math.min(rows - 1, (int)Math.floor((maxY - gridY) / cellSize));
+		int[] found = new int[16];
+		int size = 0;
+		for(int row = firstRow; row <= lastRow; ++row)
+			for(int c = row * columns + firstColumn; c <= row * columns + lastColumn; ++c)
+				for(int i = cellStart[c]; i < cellStart[c + 1]; ++i){
+					int system = cellSystems[i];
+					if(x[system] < minX || x[system] > maxX || y[system] < minY || y[system] > maxY)
+						continue;
+					if(size == found.length)
+						found = Arrays.copyOf(found, size * 2);
+					found[size++] = system;
+				}
+		return Arrays.copyOf(found, size);
+	}
+
+
+
+	/**
+	 * Find a route with the fewest jumps from one system to another.
+	 * @param  int     from          The number of the starting system.
+	 * @param  int     to            The number of the destination.
+	 * @param  boolean jumpDrive     If true, jump to any system in range
+	 *                               instead of following hyperspace links.
+	 * @return         The systems along the route, from the start to the
+	 *                 destination, or null if there is no route.
+	 */
+	public int[] route(int from, int to, boolean jumpDrive){
+		int key = from * 2 + (jumpDrive ? 1 : 0);
+		int[] parents = trees.get(key);
+		if(parents == null){
+			parents = search(from, jumpDrive);
+			trees.put(key, parents);
+		}
+		if(parents[to] < 0)
+			return null;
+		int length = 1;
+		for(int i = to; i != from; i = parents[i])
+			++length;
+		int[] path = new int[length];
+		for(int i = to; length > 0; i = parents[i])
+			path[--length] = i;
+		return path;
+	}
+
+
+
+	/**
+	 * Find the systems within a number of hyperspace jumps of a system.
+	 * @param  int   from          The number of the system to start from.
+	 * @param  int   maxJumps      The most jumps to make.
+	 * @param  int[] jumps         If not null, the number of jumps to each
+	 *                             system found is stored in it, by system.
+	 * @return       The systems found, starting with 'from', nearest first.
+	 */
+	public int[] findNearby(int from, int maxJumps, int[] jumps){
+		int[] distance = new int[systems.length];
+		Arrays.fill(distance, -1);
+		int[] queue = new int[systems.length];
+		int head = 0;
+		int tail = 0;
+		distance[from] = 0;
+		queue[tail++] = from;
+		while(head < tail){
+			int system = queue[head++];
+			if(jumps != null)
+				jumps[system] = distance[system];
+			if(distance[system] == maxJumps)
+				continue;
+			for(int i = linkStart[system]; i < linkStart[system + 1]; ++i)
+				if(distance[links[i]] < 0){
+					distance[links[i]] = distance[system] + 1;
+					queue[tail++] = links[i];
+				}
+		}
+		return Arrays.copyOf(queue, tail);
+	}
+
+
+
+	// Returns the systems within the given distance of a point, in no
+	// particular order.
+	public int[] findInRange(double px, double py, double range){
+		int[] candidates = findInArea(px - range, py - range, px + range, py + range);
+		int size = 0;
+		for(int system : candidates){
+			double dx = x[system] - px;
+			double dy = y[system] - py;
+			if(dx * dx + dy * dy <= range * range)
+				candidates[size++] = system;
+		}
+		return Arrays.copyOf(candidates, size);
+	}
+
+
+
+	/**
+	 * Find the system nearest to a point.
+	 * @param  double px            The point.
+	 * @param  double py
+	 * @param  int    exclude       A system to skip, e.g. the one at the
+	 *                              point, or -1.
+	 * @return        The nearest system, or -1 if there is none.
+	 */
+	public int findNearest(double px, double py, int exclude){
+		if(systems.length == 0)
+			return -1;
+		// Search rings of cells around the point's cell, outward. Cells in the
+		// next ring out are at least 'ring' cells away, so once a system
+		// closer than that has been found, no further ring can hold a closer one.
+		int column = (int)Math.max(0, Math.min(columns - 1, Math.floor((px - gridX) / cellSize)));
+		int row = (int)Math.max(0, Math.min(rows - 1, Math.floor((py - gridY) / cellSize)));
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		for(int ring = 0; ring <= Math.max(columns, rows); ++ring){
+			for(int r = row - ring; r <= row + ring; ++r){
+				if(r < 0 || r >= rows)
+					continue;
+				// Only the edge of the ring is new.
+				int step = r == row - ring || r == row + ring ? 1 : Math.max(1, 2 * ring);
+				for(int c = column - ring; c <= column + ring; c += step){
+					if(c < 0 || c >= columns)
+						continue;
+					for(int i = cellStart[r * columns + c]; i < cellStart[r * columns + c + 1]; ++i){
+						int system = cellSystems[i];
+						double dx = x[system] - px;
+						double dy = y[system] - py;
+						double distance = dx * dx + dy * dy;
+						if(system != exclude && distance < bestDistance){
+							best = system;
+							bestDistance = distance;
+						}
+					}
+				}
+			}
+			if(best >= 0 && bestDistance <= (ring * cellSize) * (ring * cellSize))
+				break;
+		}
+		return best;
+	}
+
+
+
+	// Returns how far a jump drive reaches from the given system.
+	public double getJumpRange(int id){
+		return jumpRange[id];
+	}
+
+
+
+	public boolean isInaccessible(int id){
+		return inaccessible[id];
+	}
+
+
+
+	// Breadth-first search from the given system, returning the system each
+	// other system is first reached from.
+	private int[] search(int from, boolean jumpDrive){
+		int[] start = linkStart;
+		int[] next = links;
+		if(jumpDrive){
+			findJumps();
+			start = jumpStart;
+			next = jumps;
+		}
+		int[] parents = new int[systems.length];
+		Arrays.fill(parents, -1);
+		int[] queue = new int[systems.length];
+		int head = 0;
+		int tail = 0;
+		parents[from] = from;
+		queue[tail++] = from;
+		while(head < tail){
+			int system = queue[head++];
+			for(int i = start[system]; i < start[system + 1]; ++i){
+				int other = next[i];
+				if(parents[other] < 0){
+					parents[other] = system;
+					queue[tail++] = other;
+				}
+			}
+		}
+		return parents;
+	}
+
+
+
+	// Find the systems that a jump drive can reach from each system: those
+	// within its jump range, other than the inaccessible ones.
+	private synchronized void findJumps(){
+		if(jumps != null)
+			return;
+		int count = systems.length;
+		int[] start = new int[count + 1];
+		int[] found = new int[Math.max(16, count)];
+		int size = 0;
+		for(int i = 0; i < count; ++i){
+			for(int j : findInRange(x[i], y[i], jumpRange[i])){
+				if(j == i || inaccessible[j])
+					continue;
+				if(size == found.length)
+					found = Arrays.copyOf(found, size * 2);
+				found[size++] = j;
+			}
+			start[i + 1] = size;
+		}
+		jumpStart = start;
+		jumps = Arrays.copyOf(found, size);
+	}
+
+
+
+	// Returns the grid cell the given system is in.
+	private int cell(int id){
+		return Math.min(rows - 1, (int)((y[id] - gridY) / cellSize)) * columns
+				+ Math.min(columns - 1, (int)((x[id] - gridX) / cellSize));
+	}
+
+
+
+	private static int toRGB(double r, double g, double b){
+		int red = (int)Math.round(Math.max(0., Math.min(1., r)) * 255.);
+		int green = (int)Math.round(Math.max(0., Math.min(1., g)) * 255.);
+		int blue = (int)Math.round(Math.max(0., Math.min(1., b)) * 255.);
+		return (red << 16) | (green << 8) | blue;
+	}
+
+
+
+	// Add a link from a to b, unless there already is one.
+	private static void addLink(int[][] adjacent, int[] degree, int a, int b){
+		for(int i = 0; i < degree[a]; ++i)
+			if(adjacent[a][i] == b)
+				return;
+		if(degree[a] == adjacent[a].length)
+			adjacent[a] = Arrays.copyOf(adjacent[a], degree[a] * 2);
+		adjacent[a][degree[a]++] = b;
+	}
+}
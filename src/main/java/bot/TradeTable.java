@@ -0,0 +1,203 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// The price of every commodity in every system, read once from the systems'
+// "trade" lines into one row of prices per system, and the most profitable
+// trades that can be made within some number of jumps. A search from every
+// system at once is split across all cores with fork/join. Results are kept
+// until the data is reloaded, which replaces the whole table.
+public class TradeTable {
+
+	public static final int MAX_JUMPS = 8;
+	// How many trades a search returns.
+	public static final int LIMIT = 10;
+	private static final int MAX_RESULTS = 256;
+	// Searches from fewer systems than this are not split further.
+	private static final int SPLIT = 64;
+
+	// A commodity bought in one system and sold in another.
+	public static final class Trade {
+		public final int from;
+		public final int to;
+		public final int commodity;
+		public final int buy;
+		public final int sell;
+		public final int jumps;
+
+		Trade(int from, int to, int commodity, int buy, int sell, int jumps){
+			this.from = from;
+			this.to = to;
+			this.commodity = commodity;
+			this.buy = buy;
+			this.sell = sell;
+			this.jumps = jumps;
+		}
+
+		public int getProfit(){
+			return sell - buy;
+		}
+	}
+
+	private final SystemGraph graph;
+	private final List<String> commodities = new ArrayList<>();
+	// The price of commodity c in system s is prices[s * commodities + c], or
+	// 0 if it is not traded there.
+	private final int[] prices;
+	// By starting system (or -1 for all) and jumps.
+	private final Map<String, List<Trade>> results = LruMap.synchronizedOf(MAX_RESULTS);
+
+
+
+	public TradeTable(DataIndex index){
+		graph = index.getDerived(SystemGraph.class, SystemGraph::new);
+		HashMap<String, Integer> ids = new HashMap<>();
+		List<int[]> rows = new ArrayList<>(graph.size());
+		for(int s = 0; s < graph.size(); ++s){
+			DataNode node = DataNode.parse(index.getText(graph.getEntry(s)));
+			List<DataNode> children = node == null ? Collections.<DataNode>emptyList() : node.getChildren();
+			int[] row = new int[0];
+			for(DataNode child : children){
+				if(!child.isToken(0, "trade") || child.size() < 3 || !child.hasValue(2))
+					continue;
+				Integer id = ids.get(child.getToken(1));
+				if(id == null){
+					id = commodities.size();
+					ids.put(child.getToken(1), id);
+					commodities.add(child.getToken(1));
+				}
+				if(row.length <= id)
+					row = Arrays.copyOf(row, id + 1);
+				row[id] = (int)child.getValue(2);
+			}
+			rows.add(row);
+		}
+		int width = commodities.size();
+		prices = new int[graph.size() * width];
+		for(int s = 0; s < rows.size(); ++s)
+			System.arraycopy(rows.get(s), 0, prices, s * width, rows.get(s).length);
+	}
+
+
+
+	public String getCommodity(int commodity){
+		return commodities.get(commodity);
+	}
+
+
+
+	public SystemGraph getGraph(){
+		return graph;
+	}
+
+
+
+	/**
+	 * Find the most profitable trades, making the single best trade for each
+	 * pair of systems.
+	 * @param  int from          The system to buy in, or -1 to search from
+	 *                           every system.
+	 * @param  int maxJumps      The most jumps between buying and selling.
+	 * @return     Up to LIMIT trades, most profitable first.
+	 */
+	public List<Trade> find(int from, int maxJumps){
+		int jumps = Math.max(1, Math.min(MAX_JUMPS, maxJumps));
+		String key = from + ":" + jumps;
+		List<Trade> cached = results.get(key);
+		if(cached != null)
+			return cached;
+
+		List<Trade> found = from >= 0 ? search(from, from + 1, jumps)
+				: ForkJoinPool.commonPool().invoke(new Search(0, graph.size(), jumps));
+		found = Collections.unmodifiableList(found);
+		results.put(key, found);
+		return found;
+	}
+
+
+
+	// Search from each system in [first, end), keeping the best trades.
+	private List<Trade> search(int first, int end, int maxJumps){
+		int width = commodities.size();
+		int[] jumps = new int[graph.size()];
+		List<Trade> best = new ArrayList<>();
+		for(int from = first; from < end; ++from){
+			for(int to : graph.findNearby(from, maxJumps, jumps)){
+				if(to == from)
+					continue;
+				// The most profitable commodity between these two systems.
+				int commodity = -1;
+				int profit = 0;
+				for(int c = 0; c < width; ++c){
+					int buy = prices[from * width + c];
+					int sell = prices[to * width + c];
+					if(buy > 0 && sell > 0 && sell - buy > profit){
+						profit = sell - buy;
+						commodity = c;
+					}
+				}
+				if(commodity >= 0)
+					keep(best, new Trade(from, to, commodity, prices[from * width + commodity], prices[to * width + commodity], jumps[to]));
+			}
+		}
+		return best;
+	}
+
+
+
+	// Add the trade to the list if it is among the best LIMIT, keeping the
+	// list in order. Fewer jumps win ties.
+	private static void keep(List<Trade> best, Trade trade){
+		int i = best.size();
+		while(i > 0 && isBetter(trade, best.get(i - 1)))
+			--i;
+		if(i < LIMIT){
+			best.add(i, trade);
+			if(best.size() > LIMIT)
+				best.remove(LIMIT);
+		}
+	}
+
+
+
+	private static boolean isBetter(Trade a, Trade b){
+		return a.getProfit() != b.getProfit() ? a.getProfit() > b.getProfit() : a.jumps < b.jumps;
+	}
+
+
+
+	// Searches from a range of systems, splitting the range in two until it
+	// is small enough to search directly.
+	private final class Search extends RecursiveTask<List<Trade>> {
+		private static final long serialVersionUID = 1L;
+		private final int first;
+		private final int end;
+		private final int jumps;
+
+		Search(int first, int end, int jumps){
+			this.first = first;
+			this.end = end;
+			this.jumps = jumps;
+		}
+
+		@Override
+		protected List<Trade> compute(){
+			if(end - first <= SPLIT)
+				return search(first, end, jumps);
+			int middle = (first + end) >>> 1;
+			Search left = new Search(first, middle, jumps);
+			left.fork();
+			List<Trade> best = new Search(middle, end, jumps).compute();
+			for(Trade trade : left.join())
+				keep(best, trade);
+			return best;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package bot;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DataLoaderTest {
+
+	@Test
+	public void acceptsBranchAndTagNames(){
+		assertTrue(DataLoader.isVersionName("v0.9.8"));
+		assertTrue(DataLoader.isVersionName("release-0.9.x"));
+		assertTrue(DataLoader.isVersionName("my_branch"));
+	}
+
+
+
+	@Test
+	public void rejectsNamesThatLeaveTheCacheDirectory(){
+		assertFalse(DataLoader.isVersionName("."));
+		assertFalse(DataLoader.isVersionName(".."));
+		assertFalse(DataLoader.isVersionName("..."));
+		assertFalse(DataLoader.isVersionName("v0..9"));
+		assertFalse(DataLoader.isVersionName(".hidden"));
+		assertFalse(DataLoader.isVersionName("../master"));
+		assertFalse(DataLoader.isVersionName(""));
+	}
+}
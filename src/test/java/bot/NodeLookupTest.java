@@ -0,0 +1,61 @@
+package bot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class NodeLookupTest {
+
+	private static final DataIndex DATA = new DataIndex(
+			"ship \"Falcon\"\n"
+			+ "\tsprite \"ship/falcon\"\n"
+			+ "\tattributes\n"
+			+ "\t\tcategory \"Heavy Warship\"\n"
+			+ "ship \"Falcon\" \"Falcon (Plasma)\"\n"
+			+ "\toutfits\n"
+			+ "\t\t\"Plasma Cannon\" 4\n"
+			+ "outfit \"Plasma Cannon\"\n"
+			+ "\tthumbnail \"outfit/plasma cannon\"\n"
+			+ "outfit \"Ion Cannon\"\n"
+			+ "\tthumbnail \"outfit/ion cannon\"\n"
+			+ "outfit \"Cannon\"\n"
+			+ "ship \"Event Horizon\"\n"
+			+ "event \"Horizons\"\n");
+
+
+
+	@Test
+	public void variantFallsBackToItsBaseModel(){
+		DataIndex.Entry model = NodeLookup.findBaseModel(DATA, "falcon (plasma)");
+		assertNotNull(model);
+		assertEquals("ship \"Falcon\"", model.getLine());
+	}
+
+
+
+	@Test
+	public void nonVariantHasNoBaseModel(){
+		assertNull(NodeLookup.findBaseModel(DATA, "falcon"));
+		assertNull(NodeLookup.findBaseModel(DATA, "plasma cannon"));
+	}
+
+
+
+	@Test
+	public void onlyWholeDataTypesAreCategories(){
+		// "ion" is part of "mission", but is not a data type.
+		assertEquals("outfit \"Ion Cannon\"", NodeLookup.find(DATA, "ion cannon").getLine());
+		assertEquals("outfit \"Ion Cannon\"", NodeLookup.find(DATA, "Ion Cannon").getLine());
+		assertEquals("outfit \"Cannon\"", NodeLookup.find(DATA, "outfit cannon").getLine());
+	}
+
+
+
+	@Test
+	public void aDataTypeMayStartTheName(){
+		assertEquals("ship \"Event Horizon\"", NodeLookup.find(DATA, "event horizon").getLine());
+		assertEquals("event \"Horizons\"", NodeLookup.find(DATA, "event horizons").getLine());
+	}
+}
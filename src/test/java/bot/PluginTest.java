@@ -0,0 +1,72 @@
+package bot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class PluginTest {
+
+	private static final DataIndex BASE = new DataIndex(
+			"outfit \"Cannon\"\n"
+			+ "\tmass 5\n"
+			+ "\tcost 100\n"
+			+ "outfit \"Laser\"\n"
+			+ "\tmass 3\n");
+
+
+
+	@Test
+	public void windowsLineEndingsKeepEveryChild() throws IOException {
+		Plugin plugin = Plugin.read(zip("data/outfits.txt",
+				"outfit \"Blaster\"\r\n"
+				+ "\tmass 4\r\n"
+				+ "\r\n"
+				+ "   \r\n"
+				+ "\tcost 250\r\n"
+				+ "outfit \"Cannon\"\r\n"
+				+ "\tmass 5\r\n"
+				+ "\tcost 100\r\n"), "test.zip", BASE);
+
+		DataIndex.Entry blaster = plugin.index.findNamed("outfit", "Blaster");
+		assertTrue(plugin.index.getText(blaster).contains("cost 250"));
+		assertEquals(1, plugin.added.size());
+		assertEquals("outfit \"Blaster\"", plugin.added.get(0).getLine());
+		// The same node, saved with different line endings, repeats the base.
+		assertEquals(1, plugin.unchanged.size());
+		assertTrue(plugin.overridden.isEmpty());
+	}
+
+
+
+	@Test
+	public void blankLinesWithSpacesDoNotEndANode(){
+		DataIndex data = new DataIndex(
+				"outfit \"Blaster\"\n"
+				+ "\tmass 4\n"
+				+ "  \n"
+				+ "\tcost 250\n"
+				+ "outfit \"Laser\"\n");
+		assertEquals(2, data.size());
+		assertTrue(data.getText(data.findNamed("outfit", "Blaster")).contains("cost 250"));
+	}
+
+
+
+	private static ByteArrayInputStream zip(String path, String text) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ZipOutputStream out = new ZipOutputStream(bytes)){
+			out.putNextEntry(new ZipEntry(path));
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+			out.closeEntry();
+		}
+		return new ByteArrayInputStream(bytes.toByteArray());
+	}
+}